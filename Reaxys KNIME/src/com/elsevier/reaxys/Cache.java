@@ -1,44 +1,410 @@
 package com.elsevier.reaxys;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-	public class Cache<K, V> extends LinkedHashMap<K, V> {
-	    /**
-		 * 
+/**
+ * cache of values, bounded by their estimated size in bytes.  Used to share the cells of
+ * molecules that occur in many rows, and to canonicalize repeated value strings.
+ *
+ * The cache is split into segments by the hash of the key, each with its own lock and an
+ * equal part of the byte budget, so threads that look up different keys rarely wait for
+ * each other.  Each segment keeps its entries in access order.  When a new entry does not
+ * fit, it is only admitted if its key has been looked up more often than that of the least
+ * recently used entry, which is then evicted with as many others as needed.  How often keys
+ * were looked up is estimated with a small count-min sketch per segment, whose counts are
+ * halved from time to time so old lookups are forgotten.  Values that are seen once do not
+ * push out values that are used again and again.
+ *
+ * Hits, misses, evictions and rejected entries are counted, see {@link #toString}.
+ *
+ * @author CLARKM
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class Cache<K, V> {
+
+	/**
+	 * estimates the memory that an entry takes
+	 *
+	 * @param <K> key type
+	 * @param <V> value type
+	 */
+	public interface Weigher<K, V> {
+
+		/**
+		 * @param key key of the entry
+		 * @param value value of the entry
+		 * @return estimated size in bytes
 		 */
-		private static final long serialVersionUID = -7904753309605084671L;
-		private final int maxSize;
-		private static final int DEFAULT_SIZE = 9000; // can't go over 9000
-
-	    public Cache(int maxSize) {
-	        this.maxSize = maxSize;
-	    }
-	    
-	    public Cache() {
-	    	this(DEFAULT_SIZE);
-	    }
-
-	    @Override
-	    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-	        return size() > maxSize;
-	    }
-	    
-	    
-	    /**
-	     * use this to make a cache of canonical values
-	     * @param key key/value for canonicalization
-	     * @return a canonicalized value
-	     */
-	    @SuppressWarnings("unchecked")
-		public V canon(K key) {
-	    	V result = get(key);
-	    	if (result == null) {
-	    		put(key, (V) key);
-	    		return (V) key;
-	    	} else {
-	    		return result;
-	    	}
-	    }
+		int weigh(K key, V value);
+	}
+
+	/* default budget, in bytes */
+	private static final long DEFAULT_BYTES = 16L << 20;
+
+	/* number of segments, a power of 2 */
+	private static final int SEGMENTS = 8;
+
+	/* counters of the frequency sketch in each row of each segment, a power of 2 */
+	private static final int SKETCH_WIDTH = 512;
+
+	/* lookups after which the frequency counts of a segment are halved */
+	private static final int SAMPLE_SIZE = 10 * SKETCH_WIDTH;
+
+	/* estimated bytes of an object that is not a string */
+	private static final int OBJECT_BYTES = 64;
+
+	private final Segment<K, V>[] segments;
+	private final Weigher<K, V> weigher;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+
+	/**
+	 * create a cache with the default budget, that estimates the size of strings by their length
+	 */
+	public Cache() {
+		this(DEFAULT_BYTES, null);
+	}
+
+
+	/**
+	 * create a cache
+	 *
+	 * @param maxBytes budget of the cache in estimated bytes
+	 * @param weigher estimates the size of an entry, or null to estimate strings by their
+	 * length and other objects as OBJECT_BYTES
+	 */
+	public Cache(final long maxBytes, final Weigher<K, V> weigher) {
+
+		this.weigher = weigher;
+		@SuppressWarnings("unchecked")
+		final Segment<K, V>[] created = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+		segments = created;
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment<K, V>(maxBytes / SEGMENTS);
+		}
+	}
+
+
+	/**
+	 * get a value, counting a hit or miss
+	 *
+	 * @param key key of the value
+	 * @return the value, or null if it is not cached
+	 */
+	public V get(final K key) {
+
+		final int hash = hash(key);
+		final Segment<K, V> segment = segmentFor(hash);
+
+		synchronized (segment) {
+			segment.record(hash);
+			final Entry<V> entry = segment.map.get(key);
+
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+
+
+	/**
+	 * add a value.  A new value that does not fit is only admitted if its key was looked
+	 * up more often than the least recently used key, and values larger than a segment
+	 * are never cached.
+	 *
+	 * @param key key of the value
+	 * @param value the value
+	 */
+	public void put(final K key, final V value) {
+
+		final int hash = hash(key);
+		final Segment<K, V> segment = segmentFor(hash);
+		final int weight = weigh(key, value);
+
+		synchronized (segment) {
+			add(segment, hash, key, value, weight);
+		}
+	}
+
+
+	/**
+	 * use this to make a cache of canonical values
+	 * @param key key/value for canonicalization
+	 * @return a canonicalized value
+	 */
+	@SuppressWarnings("unchecked")
+	public V canon(final K key) {
+
+		final int hash = hash(key);
+		final Segment<K, V> segment = segmentFor(hash);
+
+		synchronized (segment) {
+			segment.record(hash);
+			final Entry<V> entry = segment.map.get(key);
+
+			if (entry != null) {
+				hits.incrementAndGet();
+				return entry.value;
+			}
+
+			misses.incrementAndGet();
+			add(segment, hash, key, (V) key, weigh(key, (V) key));
+			return (V) key;
+		}
+	}
+
+
+	/**
+	 * remove all values.  The counters are kept.
+	 */
+	public void clear() {
+
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.map.clear();
+				segment.weight = 0;
+			}
+		}
+	}
+
+
+	/**
+	 * @return number of values cached
+	 */
+	public int size() {
+
+		int size = 0;
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+
+	/**
+	 * @return estimated bytes of the values cached
+	 */
+	public long weight() {
+
+		long weight = 0;
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				weight += segment.weight;
+			}
+		}
+		return weight;
+	}
+
+
+	/**
+	 * @return number of lookups that found a value
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+
+	/**
+	 * @return number of lookups that found no value
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+
+	/**
+	 * @return number of values removed to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.get();
 	}
 
+
+	/**
+	 * @return number of new values that were not admitted
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+
+	@Override
+	public String toString() {
+		return size() + " entries, " + (weight() >> 10) + " KB, " + hits.get() + " hits, "
+				+ misses.get() + " misses, " + evictions.get() + " evictions, "
+				+ rejections.get() + " rejected";
+	}
+
+
+	/**
+	 * add a value to a segment, whose lock is held
+	 */
+	private void add(final Segment<K, V> segment, final int hash, final K key, final V value,
+			final int weight) {
+
+		final Entry<V> old = segment.map.remove(key);
+		if (old != null) {
+			segment.weight -= old.weight;
+		}
+
+		if (weight > segment.maxBytes) {
+			rejections.incrementAndGet();
+			return;
+		}
+
+		Iterator<Map.Entry<K, Entry<V>>> lru = segment.map.entrySet().iterator();
+
+		// a new value has to be used more often than the one it would replace
+		if (old == null && segment.weight + weight > segment.maxBytes && lru.hasNext()) {
+
+			final K victim = lru.next().getKey();
+			if (segment.frequency(hash) <= segment.frequency(hash(victim))) {
+				rejections.incrementAndGet();
+				return;
+			}
+			lru = segment.map.entrySet().iterator();
+		}
+
+		while (segment.weight + weight > segment.maxBytes && lru.hasNext()) {
+			segment.weight -= lru.next().getValue().weight;
+			lru.remove();
+			evictions.incrementAndGet();
+		}
+
+		segment.map.put(key, new Entry<V>(value, weight));
+		segment.weight += weight;
+	}
+
+
+	private int weigh(final K key, final V value) {
+
+		if (weigher != null) {
+			return weigher.weigh(key, value);
+		}
+		return 32 + estimate(key) + (value == key ? 0 : estimate(value));
+	}
+
+
+	private static int estimate(final Object o) {
+
+		if (o instanceof String) {
+			return 40 + 2 * ((String) o).length();
+		}
+		return OBJECT_BYTES;
+	}
+
+
+	private static int hash(final Object key) {
+
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+
+	private Segment<K, V> segmentFor(final int hash) {
+		return segments[hash >>> 29 & (SEGMENTS - 1)];
+	}
+
+
+	/**
+	 * a cached value and its estimated size
+	 */
+	private static final class Entry<V> {
+
+		final V value;
+		final int weight;
+
+		Entry(final V value, final int weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+
+	/**
+	 * part of the cache, guarded by its own lock
+	 */
+	private static final class Segment<K, V> {
+
+		final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+		final long maxBytes;
+		long weight = 0;
+
+		/* count-min sketch of 4 rows of 4 bit counters, two in a byte */
+		final byte[] sketch = new byte[2 * SKETCH_WIDTH];
+		int lookups = 0;
+
+		Segment(final long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * count a lookup of a key
+		 */
+		void record(final int hash) {
+
+			for (int row = 0; row < 4; row++) {
+				final int counter = counter(hash, row);
+				if (get(counter) < 15) {
+					sketch[counter >> 1] += (counter & 1) == 0 ? 1 : 16;
+				}
+			}
+
+			if (++lookups >= SAMPLE_SIZE) {
+				age();
+			}
+		}
+
+		/**
+		 * estimate how often a key was looked up
+		 */
+		int frequency(final int hash) {
+
+			int min = 15;
+			for (int row = 0; row < 4; row++) {
+				min = Math.min(min, get(counter(hash, row)));
+			}
+			return min;
+		}
+
+		/**
+		 * halve all counts
+		 */
+		private void age() {
+
+			for (int i = 0; i < sketch.length; i++) {
+				sketch[i] = (byte) ((sketch[i] >> 1) & 0x77);
+			}
+			lookups /= 2;
+		}
+
+		private int get(final int counter) {
+			return (sketch[counter >> 1] >> ((counter & 1) << 2)) & 15;
+		}
+
+		/* index of the counter of a key in a row, from 0 to 4 * SKETCH_WIDTH - 1 */
+		private static int counter(final int hash, final int row) {
+
+			int h = hash * (0x9e3779b9 + 2 * row);
+			h ^= h >>> 15;
+			return row * SKETCH_WIDTH + (h & (SKETCH_WIDTH - 1));
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.elsevier.reaxys;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * registry of the labels of the fields in result records.  Every label gets a column index
+ * the first time it is seen, which stays the same while KNIME runs, so records can store
+ * their fields by index instead of by label; see {@link ResultRecord}.
+ *
+ * Labels are only added, never removed.  There are a few thousand Reaxys fields, so the
+ * registry stays small.
+ */
+public final class FieldSchema {
+
+	private static final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] labels = new String[256];
+	private static volatile int size = 0;
+
+
+	private FieldSchema() {
+	}
+
+
+	/**
+	 * get the column index of a label, adding the label if it is new
+	 *
+	 * @param label field label
+	 * @return column index
+	 */
+	public static int index(final String label) {
+
+		final Integer index = indexes.get(label);
+		if (index != null) {
+			return index;
+		}
+		return add(label);
+	}
+
+
+	/**
+	 * get the column index of a label, without adding it
+	 *
+	 * @param label field label
+	 * @return column index, or -1 if the label has not been seen
+	 */
+	public static int find(final String label) {
+
+		final Integer index = indexes.get(label);
+		return index != null ? index : -1;
+	}
+
+
+	/**
+	 * get the label of a column index
+	 *
+	 * @param index column index
+	 * @return the label
+	 */
+	public static String label(final int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("no field " + index);
+		}
+		return labels[index];
+	}
+
+
+	/**
+	 * get the number of labels
+	 *
+	 * @return number of column indexes given out
+	 */
+	public static int size() {
+		return size;
+	}
+
+
+	/**
+	 * add a label
+	 *
+	 * @param label field label
+	 * @return its column index
+	 */
+	private static synchronized int add(final String label) {
+
+		// another thread may have added it
+		final Integer index = indexes.get(label);
+		if (index != null) {
+			return index;
+		}
+
+		final int n = size;
+		if (n == labels.length) {
+			labels = Arrays.copyOf(labels, 2 * n);
+		}
+		labels[n] = label;
+		size = n + 1;
+		indexes.put(label, n);
+
+		return n;
+	}
+}
@@ -2,11 +2,9 @@ package com.elsevier.reaxys;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashSet;
 
 import org.knime.chem.types.RxnCell;
 import org.knime.chem.types.RxnCellFactory;
@@ -22,7 +20,6 @@ import org.knime.core.data.RowKey;
 import org.knime.core.data.def.DefaultRow;
 import org.knime.core.data.def.IntCell;
 import org.knime.core.data.def.StringCell;
-import org.knime.core.data.def.StringCell.StringCellFactory;
 import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
@@ -36,8 +33,13 @@ import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModel;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
+
+import com.elsevier.reaxys.xml.CompressedPayload;
+import com.elsevier.reaxys.xml.ResponseCache;
+import com.elsevier.reaxys.xml.StructureCache;
 /**
  * this class has utilities for the Reaxys KNIME node so that the file is broken
  * into two pieces, this class which extends NodeModel, and the ReaxysLookupNodeModel which extends
@@ -112,6 +114,9 @@ public abstract class NodeModelUtilities extends NodeModel {
 	static final String RESULTCOUNTCOLUMN = "numberOfResults";
 	static final String DEFAULT_CELL_VALUE = "";
 
+	/* estimated bytes of the molecule cells kept to share between rows */
+	static final long MOLECULE_CACHE_BYTES = 64L << 20;
+
 	static final String CFGKEY_STARTRESULT = "Start Result to Return";
     static final String CFGLABEL_STARTRESULT = "Start result to return (advanced)";
     static final Integer DEFAULT_STARTRESULT = 1;
@@ -128,6 +133,10 @@ public abstract class NodeModelUtilities extends NodeModel {
     static final String CFGLABEL_SAMPLE = "Random subset of results, instead of top N";
 	static final boolean CFGKEY_SAMPLE_DEFAULT = false;
 	
+	static final String CFGKEY_SEED = "Random seed";
+    static final String CFGLABEL_SEED = "Random seed (-1 for a new sample each time)";
+	static final int CFGKEY_SEED_DEFAULT = -1;
+	
 	static final String CFGKEY_SORT = "Sort order ";
     static final String CFGLABEL_SORT = "Sort order (advanced)";
 	static final String CFGKEY_SORT_DEFAULT = null;
@@ -136,6 +145,71 @@ public abstract class NodeModelUtilities extends NodeModel {
     static final String CFGLABEL_ADDSTRUCT = "Add structures to results";
 	static final boolean CFGKEY_ADDSTRUCT_DEFAULT = false;
 	
+	static final String CFGKEY_CONCURRENCY = "Concurrent row lookups";
+    static final String CFGLABEL_CONCURRENCY = "Input rows looked up in parallel (1-32)";
+	static final int CFGKEY_CONCURRENCY_DEFAULT = 1;
+	static final int CFGKEY_CONCURRENCY_MAX = 32;
+	
+	static final String CFGKEY_BATCHSIZE = "Identifiers per search";
+    static final String CFGLABEL_BATCHSIZE = "Identifiers searched together (1-100)";
+	static final int CFGKEY_BATCHSIZE_DEFAULT = 1;
+	static final int CFGKEY_BATCHSIZE_MAX = 100;
+	
+	static final String CFGKEY_SEARCHAHEAD = "Searches sent ahead";
+    static final String CFGLABEL_SEARCHAHEAD = "Searches sent before they are retrieved (0-100)";
+	static final int CFGKEY_SEARCHAHEAD_DEFAULT = 0;
+	static final int CFGKEY_SEARCHAHEAD_MAX = 100;
+	
+	static final String CFGKEY_CONNECTIONS = "Connections per session";
+    static final String CFGLABEL_CONNECTIONS = "Open connections to Reaxys (1-32)";
+	static final int CFGKEY_CONNECTIONS_DEFAULT = 4;
+	static final int CFGKEY_CONNECTIONS_MAX = 32;
+	
+	static final String CFGKEY_PREFETCH = "Prefetch depth";
+    static final String CFGLABEL_PREFETCH = "Result ranges requested ahead (0-8)";
+	static final int CFGKEY_PREFETCH_DEFAULT = 1;
+	static final int CFGKEY_PREFETCH_MAX = 8;
+	
+	static final String CFGKEY_POLLINTERVAL = "Maximum poll interval";
+    static final String CFGLABEL_POLLINTERVAL = "Longest wait for a running search (1-300 s)";
+	static final int CFGKEY_POLLINTERVAL_DEFAULT = 30;
+	static final int CFGKEY_POLLINTERVAL_MAX = 300;
+	
+	static final String CFGKEY_STREAMPARSER = "Streaming XML parser";
+    static final String CFGLABEL_STREAMPARSER = "Parse responses without building a DOM";
+	static final boolean CFGKEY_STREAMPARSER_DEFAULT = true;
+	
+	static final String CFGKEY_LAZYPAYLOADS = "Compressed reactions";
+    static final String CFGLABEL_LAZYPAYLOADS = "Keep reactions compressed until output";
+	static final boolean CFGKEY_LAZYPAYLOADS_DEFAULT = false;
+	
+	static final String CFGKEY_JOINPARENTS = "Parent data once";
+    static final String CFGLABEL_JOINPARENTS = "Retrieve parent data with the first facts only";
+	static final boolean CFGKEY_JOINPARENTS_DEFAULT = false;
+	
+	static final String CFGKEY_CACHE = "Cache responses";
+    static final String CFGLABEL_CACHE = "Cache results of queries between executions";
+	static final boolean CFGKEY_CACHE_DEFAULT = false;
+	
+	static final String CFGKEY_STRUCTURECACHE = "Cache structures";
+    static final String CFGLABEL_STRUCTURECACHE = "Keep added structures between executions";
+	static final boolean CFGKEY_STRUCTURECACHE_DEFAULT = false;
+	
+	static final String CFGKEY_CACHEDIR = "Cache directory";
+    static final String CFGLABEL_CACHEDIR = "Shared cache directory (optional)";
+	static final String CFGKEY_CACHEDIR_DEFAULT = "";
+	
+	static final String CFGKEY_CACHELIFETIME = "Cache lifetime";
+    static final String CFGLABEL_CACHELIFETIME = "Cache lifetime (hours)";
+	static final int CFGKEY_CACHELIFETIME_DEFAULT = 24;
+	
+	static final String CFGKEY_CACHESIZE = "Cache size";
+    static final String CFGLABEL_CACHESIZE = "Maximum cache size (MB)";
+	static final int CFGKEY_CACHESIZE_DEFAULT = 512;
+	
+	/* name of the cache directory in the node internals */
+	static final String CACHE_INTERNALS = "responseCache";
+	
 	// name of input column to use for auto-generated query
 	protected final SettingsModelString m_column = new SettingsModelString(
 			ReaxysLookupNodeModel.CFGKEY_COLUMN_LIST, CFGKEY_DEFAULT_LIST);
@@ -187,6 +261,12 @@ public abstract class NodeModelUtilities extends NodeModel {
 			ReaxysLookupNodeModel.CFGKEY_SAMPLE,
 			ReaxysLookupNodeModel.CFGKEY_SAMPLE_DEFAULT);
 	
+	// seed of the random subset, so the same subset is drawn every time
+	protected final SettingsModelIntegerBounded m_seed = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_SEED,
+			ReaxysLookupNodeModel.CFGKEY_SEED_DEFAULT,
+			-1, Integer.MAX_VALUE);
+	
 	// add structure to any query, if possible
 	protected final SettingsModelBoolean m_addstruct = new SettingsModelBoolean(
 			ReaxysLookupNodeModel.CFGKEY_ADDSTRUCT,
@@ -197,6 +277,84 @@ public abstract class NodeModelUtilities extends NodeModel {
 			ReaxysLookupNodeModel.CFGKEY_SORT,
 			ReaxysLookupNodeModel.CFGKEY_SORT_DEFAULT);
 
+	// number of input rows that are looked up at the same time
+	protected final SettingsModelIntegerBounded m_concurrency = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_CONCURRENCY,
+			ReaxysLookupNodeModel.CFGKEY_CONCURRENCY_DEFAULT,
+			1, ReaxysLookupNodeModel.CFGKEY_CONCURRENCY_MAX);
+
+	// input rows with IDE.XRN or RX.ID identifiers that are searched with one query
+	protected final SettingsModelIntegerBounded m_batchSize = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_BATCHSIZE,
+			ReaxysLookupNodeModel.CFGKEY_BATCHSIZE_DEFAULT,
+			1, ReaxysLookupNodeModel.CFGKEY_BATCHSIZE_MAX);
+
+	// input rows whose searches are sent and polled before a worker retrieves them
+	protected final SettingsModelIntegerBounded m_searchAhead = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_SEARCHAHEAD,
+			ReaxysLookupNodeModel.CFGKEY_SEARCHAHEAD_DEFAULT,
+			0, ReaxysLookupNodeModel.CFGKEY_SEARCHAHEAD_MAX);
+
+	// connections to the server that are kept open and shared by the lookups
+	protected final SettingsModelIntegerBounded m_connections = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_CONNECTIONS,
+			ReaxysLookupNodeModel.CFGKEY_CONNECTIONS_DEFAULT,
+			1, ReaxysLookupNodeModel.CFGKEY_CONNECTIONS_MAX);
+	
+	// result ranges that are requested while the previous range is stored
+	protected final SettingsModelIntegerBounded m_prefetch = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_PREFETCH,
+			ReaxysLookupNodeModel.CFGKEY_PREFETCH_DEFAULT,
+			0, ReaxysLookupNodeModel.CFGKEY_PREFETCH_MAX);
+	
+	// ceiling of the waits between polls of a search that is still running, in seconds
+	protected final SettingsModelIntegerBounded m_pollInterval = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_POLLINTERVAL,
+			ReaxysLookupNodeModel.CFGKEY_POLLINTERVAL_DEFAULT,
+			1, ReaxysLookupNodeModel.CFGKEY_POLLINTERVAL_MAX);
+	
+	// parse retrieved data with the streaming parser, or the DOM parser for comparison
+	protected final SettingsModelBoolean m_streamParser = new SettingsModelBoolean(
+			ReaxysLookupNodeModel.CFGKEY_STREAMPARSER,
+			ReaxysLookupNodeModel.CFGKEY_STREAMPARSER_DEFAULT);
+	
+	// keep reaction payloads compressed until their cells are created
+	protected final SettingsModelBoolean m_lazyPayloads = new SettingsModelBoolean(
+			ReaxysLookupNodeModel.CFGKEY_LAZYPAYLOADS,
+			ReaxysLookupNodeModel.CFGKEY_LAZYPAYLOADS_DEFAULT);
+	
+	// retrieve the parent data of a record once, and join it to the later pages of its facts
+	protected final SettingsModelBoolean m_joinParents = new SettingsModelBoolean(
+			ReaxysLookupNodeModel.CFGKEY_JOINPARENTS,
+			ReaxysLookupNodeModel.CFGKEY_JOINPARENTS_DEFAULT);
+	
+	// keep query results between executions
+	protected final SettingsModelBoolean m_cache = new SettingsModelBoolean(
+			ReaxysLookupNodeModel.CFGKEY_CACHE,
+			ReaxysLookupNodeModel.CFGKEY_CACHE_DEFAULT);
+	
+	// keep the structures added to results between executions
+	protected final SettingsModelBoolean m_structureCache = new SettingsModelBoolean(
+			ReaxysLookupNodeModel.CFGKEY_STRUCTURECACHE,
+			ReaxysLookupNodeModel.CFGKEY_STRUCTURECACHE_DEFAULT);
+	
+	// directory for a cache shared between nodes; if empty the cache is saved with the node
+	protected final SettingsModelString m_cacheDir = new SettingsModelString(
+			ReaxysLookupNodeModel.CFGKEY_CACHEDIR,
+			ReaxysLookupNodeModel.CFGKEY_CACHEDIR_DEFAULT);
+	
+	// hours that cached results are used
+	protected final SettingsModelIntegerBounded m_cacheLifetime = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_CACHELIFETIME,
+			ReaxysLookupNodeModel.CFGKEY_CACHELIFETIME_DEFAULT,
+			1, Integer.MAX_VALUE);
+	
+	// maximum size of the cache files in MB
+	protected final SettingsModelIntegerBounded m_cacheSize = new SettingsModelIntegerBounded(
+			ReaxysLookupNodeModel.CFGKEY_CACHESIZE,
+			ReaxysLookupNodeModel.CFGKEY_CACHESIZE_DEFAULT,
+			1, Integer.MAX_VALUE);
+
 	// reaxys output data type
 	protected final SettingsModelStringArray m_rdt = new SettingsModelStringArray(
 			CFGKEY_DATA, 
@@ -232,8 +390,29 @@ public abstract class NodeModelUtilities extends NodeModel {
 			alignModel, atomlow, atomhigh, fragmentlow, fragmenthigh,ringlow, 
 			ringhigh, v3sdfile, maxResults, m_column, m_sample, m_addstruct, m_sort, startResult };
 	
-	// cache for molecules to try an reduce memory by canonicalizing the large SD file strings
-	final Cache<String, DataCell> moleculeCache = new Cache<String, DataCell>();
+	// settings added later, with their keys.  Workflows saved before they existed don't have them,
+	// so they are only loaded when present and keep their defaults otherwise.
+	final SettingsModel[] optionalSettings = new SettingsModel[] {m_seed,
+			m_concurrency, m_batchSize, m_searchAhead, m_connections, m_prefetch, m_pollInterval, m_streamParser, 
+			m_lazyPayloads, m_joinParents, m_cache, m_structureCache, m_cacheDir, m_cacheLifetime, m_cacheSize };
+	
+	final String[] optionalKeys = new String[] {CFGKEY_SEED,
+			CFGKEY_CONCURRENCY, CFGKEY_BATCHSIZE, CFGKEY_SEARCHAHEAD, CFGKEY_CONNECTIONS, CFGKEY_PREFETCH, CFGKEY_POLLINTERVAL, CFGKEY_STREAMPARSER,
+			CFGKEY_LAZYPAYLOADS, CFGKEY_JOINPARENTS, CFGKEY_CACHE, CFGKEY_STRUCTURECACHE, CFGKEY_CACHEDIR, CFGKEY_CACHELIFETIME, CFGKEY_CACHESIZE };
+	
+	// cache for molecules to try an reduce memory by canonicalizing the large SD file strings,
+	// keyed by the stored value, so compressed reactions are not inflated to look them up.
+	// A cell holds the inflated text, which is weighed as well as the key.
+	final Cache<String, DataCell> moleculeCache = new Cache<String, DataCell>(MOLECULE_CACHE_BYTES,
+			new Cache.Weigher<String, DataCell>() {
+				@Override
+				public int weigh(final String key, final DataCell cell) {
+					return 2 * key.length() + 2 * cell.toString().length() + 128;
+				}
+			});
+	
+	// directory of the response cache kept with this node, created when first needed
+	File nodeCacheDir = null;
 
 	
 	/**
@@ -241,9 +420,107 @@ public abstract class NodeModelUtilities extends NodeModel {
 	 */
 	@Override
 	protected void reset() {
+		logger.debug("molecule cache: " + moleculeCache);
 		moleculeCache.clear();
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * delete the response cache kept with this node.
+	 */
+	@Override
+	protected void onDispose() {
+		deleteNodeCache();
+	}
+	
+	
+	/**
+	 * open the response cache, if caching is enabled.  The cache is either in the shared directory
+	 * from the settings, or in a temporary directory that is saved with the node internals.
+	 * 
+	 * @return response cache, or null if caching is not enabled or the cache can't be opened
+	 */
+	ResponseCache getResponseCache() {
+		
+		if (!m_cache.getBooleanValue()) {
+			return null;
+		}
+		
+		return openResponseCache();
+	}
+	
+	
+	/**
+	 * open the cache of the structures added to results, if structures are added.  The
+	 * structures are kept for the execution, and between executions in the response cache
+	 * directory if that is enabled.  The response cache of the execution is used for them, so
+	 * there is only one cache, with one size limit, for the directory.
+	 * 
+	 * @param cache response cache of the execution, or null if responses are not cached
+	 * @return structure cache, or null if structures are not added
+	 */
+	StructureCache getStructureCache(final ResponseCache cache) {
+		
+		if (!m_addstruct.getBooleanValue()) {
+			return null;
+		}
+		
+		if (!m_structureCache.getBooleanValue()) {
+			return new StructureCache(null);
+		}
+		
+		return new StructureCache(cache != null ? cache : openResponseCache());
+	}
+	
+	
+	/**
+	 * open the cache directory from the settings, or the one saved with the node.
+	 * 
+	 * @return response cache, or null if the cache can't be opened
+	 */
+	private ResponseCache openResponseCache() {
+		
+		final long lifetime = m_cacheLifetime.getIntValue() * 3600L * 1000L;
+		final long size = m_cacheSize.getIntValue() * 1024L * 1024L;
+		final String shared = m_cacheDir.getStringValue();
+		
+		try {
+			
+			if (shared != null && !shared.trim().equals("")) {
+				return new ResponseCache(new File(shared.trim()), lifetime, size);
+			}
+			
+			if (nodeCacheDir == null) {
+				nodeCacheDir = Files.createTempDirectory("ReaxysCache").toFile();
+			}
+			return new ResponseCache(nodeCacheDir, lifetime, size);
+			
+		} catch (IOException e) {
+			logger.error("can't open response cache: " + e);
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * delete the response cache kept with this node
+	 */
+	void deleteNodeCache() {
+		
+		if (nodeCacheDir != null) {
+			final File[] files = nodeCacheDir.listFiles();
+			if (files != null) {
+				for (final File f : files) {
+					f.delete();
+				}
+			}
+			nodeCacheDir.delete();
+			nodeCacheDir = null;
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -290,119 +567,41 @@ public abstract class NodeModelUtilities extends NodeModel {
 
 
 	/**
-	 * fix the output table if the row has new columns that aren't in the table.  Enlarge the table by adding
-	 * the column and recopy the data to the new table. The data should be copied by reference, so the 
-	 * storage required for the recopying should be minimal.
-	 * 
-	 * The original data table is created based on the first record, so if subsequent data records have
-	 * data that the first record didn't have they would be left out without this analysis.
+	 * create a new data row for the output table with the current row data,
+	 * a key, and the count of total results
 	 * 
-	 * @param exec  KNIME execution environment
-	 * @param outputTable  current data table
-	 * @param rowData  the new row of data to compare to the talble
-	 * @return output table, possibly updated with new columns based on the row given as an argument.
+	 * @param outputTable current output table
+	 * @param key rowkey derived from external data
+	 * @param rowData field data for this row
+	 * @param totalResults total Reaxys results
+	 * @return
 	 */
-	BufferedDataContainer fixDataTableColumns(final ExecutionContext exec, final BufferedDataContainer outputTable, 
-			final HashMap<String, String> rowData) {
-		
-		
-		final List<String> colNames = Arrays.asList(outputTable.getTableSpec()
-				.getColumnNames());
-		
-		// fast path to return with no changes.
-		if (colNames.size() == rowData.size()) {
-			return outputTable;
-		}
-		
-		BufferedDataContainer newContainer = outputTable;
-		
-		// shallow copy; same objects in new map.
-		final ArrayList<String> rowDataSet = new ArrayList<String>(rowData.keySet());
+	DataRow createDataRow(BufferedDataContainer outputTable, 
+			RowKey key, ResultRecord rowData,
+			int totalResults)  {
 		
-		// subtract all of the ones we knew about from the original table to see what is left over
-		rowDataSet.removeAll(colNames);
-	
-		// process the columns that were not in the output table
-		for (final String colName : rowDataSet) {
-
-				logger.info("output col " + colName + " not in table, adding it");
-				// use newContainer since we may add several columns in this sweep;
-				newContainer.close();
-				int numCols = newContainer.getTableSpec().getNumColumns();
-				final DataColumnSpec[] newSpec = new DataColumnSpec[numCols + 1];
-
-				// copy the column specs. there is no method to return the whole array.
-				for (int s = 0; s < numCols; s++) {
-					newSpec[s] = newContainer.getTableSpec().getColumnSpec(s);
-				}
-				DataCell newCell;
-				
-				// add the new column
-				if (isStructureTag(colName)) {
-					newSpec[numCols] = new DataColumnSpecCreator(colName,
-							SdfCell.TYPE).createSpec();
-					newCell = SdfCellFactory.create("");
-					
-				} else if (isReactionTag(colName)) {
-					newSpec[numCols] = new DataColumnSpecCreator(colName,
-							RxnCell.TYPE).createSpec();
-					newCell = RxnCellFactory.create("");
-				} else {
-					newSpec[numCols] = new DataColumnSpecCreator(colName,
-						StringCell.TYPE).createSpec();
-					newCell = StringCellFactory.create("");
-				}
-
-				final DataTableSpec newTable = new DataTableSpec(newSpec);
-				// make a temporary new container to receive the rows from the old one
-				final BufferedDataContainer brandNewContainer = exec.createDataContainer(newTable);
-
-				// copy rows from from the original outputTable; we may end up doing this multiple times
-				//  if this row has many more columns.
-				// always copy from the original output table, as we are only adding columns,
-				// not data.
-				for (DataRow oldRow : newContainer.getTable()) {
-					
-					// for each row, copy each cell in the row.
-					// hopefully this is referencing each cell object, 
-					// not making new ones.
-					final DataCell[] cells = new DataCell[numCols + 1];
-					final RowKey oldKey = oldRow.getKey();
-					final int nCells = oldRow.getNumCells();
-					
-					for (int ss= 0; ss < nCells; ss++) {
-						cells[ss] = oldRow.getCell(ss);
-					}
-					// add empty data
-					cells[numCols] = newCell; // new StringCell(DEFAULT_CELL_VALUE);
-					final DataRow newRow = new DefaultRow(oldKey, cells);
-					brandNewContainer.addRowToTable(newRow);
-				}
-				// "copy" the temporary new container to the new container to be returned
-				newContainer = brandNewContainer;
-		}
-		return newContainer;
+		return createDataRow(outputTable.getTableSpec(), key, rowData, totalResults);
 	}
 	
-
 	
 	/**
-	 * create a new data row for the output table with the current row data,
-	 * a key, and the count of total results
+	 * create a new data row for the given table spec with the current row data,
+	 * a key, and the count of total results.  Values for columns that are not in the
+	 * spec are ignored.
 	 * 
-	 * @param outputTable current output table
+	 * @param tableSpec spec of the output table
 	 * @param key rowkey derived from external data
-	 * @param rowData HashMap<String, String> data for this row
+	 * @param rowData field data for this row
 	 * @param totalResults total Reaxys results
 	 * @return
 	 */
-	DataRow createDataRow(BufferedDataContainer outputTable, 
-			RowKey key, HashMap<String, String> rowData,
+	DataRow createDataRow(DataTableSpec tableSpec, 
+			RowKey key, ResultRecord rowData,
 			int totalResults)  {
 
 		// the cells of the current row, the types of the cells must
 		// match the column spec (see above)
-		final String[] colNames = outputTable.getTableSpec().getColumnNames();
+		final String[] colNames = tableSpec.getColumnNames();
 		final DataCell[] cells = new DataCell[colNames.length];
 
 		// assign all the column values for this row
@@ -410,9 +609,10 @@ public abstract class NodeModelUtilities extends NodeModel {
 		for (int c = 0; c < cells.length; c++) {
 			
 			String colName = colNames[c];
-			String value = rowData.get(colName);
+			// compressed reactions are inflated only when their cell is created
+			String value = rowData.getStored(colName);
 			
-			DataColumnSpec spec = outputTable.getTableSpec().getColumnSpec(colName);
+			DataColumnSpec spec = tableSpec.getColumnSpec(c);
 			
 			if (value == null) {
 				value = DEFAULT_CELL_VALUE; // looks nicer than null
@@ -421,23 +621,21 @@ public abstract class NodeModelUtilities extends NodeModel {
 			try {
 				if (spec.getType() == SdfCell.TYPE) {
 					if (value.equals(DEFAULT_CELL_VALUE)) value = EOF;
-					if (moleculeCache.containsKey(value)) { 
-						cells[c] = moleculeCache.get(value);
-					} else {
-						cells[c] = SdfCellFactory.create(value); 
+					cells[c] = moleculeCache.get(value);
+					if (cells[c] == null) { 
+						cells[c] = SdfCellFactory.create(CompressedPayload.expand(value)); 
 						moleculeCache.put(value, cells[c]);
 					}
 
 				} else if (spec.getType() == RxnCell.TYPE) {
 
-					if (moleculeCache.containsKey(value)) { 
-						cells[c] = moleculeCache.get(value);
-					} else {
-						cells[c] = RxnCellFactory.create(value);
+					cells[c] = moleculeCache.get(value);
+					if (cells[c] == null) { 
+						cells[c] = RxnCellFactory.create(CompressedPayload.expand(value));
 						moleculeCache.put(value, cells[c]);
 					}
 				} else {
-					cells[c] = new StringCell(value);
+					cells[c] = new StringCell(CompressedPayload.expand(value));
 				}
 			} catch (Exception e) { // catch sdf/rdf conversion errors and go on
 				System.err.println("Error: " + e + " for sdf\n" + value);
@@ -451,6 +649,104 @@ public abstract class NodeModelUtilities extends NodeModel {
 	}
 	
 	
+	/**
+	 * create the column spec for an output column; structures and reactions get
+	 * their chemistry types, everything else is a string.
+	 * 
+	 * @param colName name of the column
+	 * @return column spec
+	 */
+	static DataColumnSpec createColumnSpec(final String colName) {
+		
+		if (isStructureTag(colName)) {
+			return new DataColumnSpecCreator(colName, SdfCell.TYPE).createSpec();
+		} else if (isReactionTag(colName)) {
+			return new DataColumnSpecCreator(colName, RxnCell.TYPE).createSpec();
+		}
+		return new DataColumnSpecCreator(colName, StringCell.TYPE).createSpec();
+	}
+	
+	
+	/**
+	 * predict the output table spec from the settings.  This is the query and count columns,
+	 * followed by the fields of the associated data types and the requested data type, and the
+	 * structure fields if structures are added to the results.  Execution writes rows against
+	 * this spec, in both modes, so the output has the columns configure promised.
+	 * 
+	 * @return predicted output spec, or null if the data type is not known
+	 */
+	DataTableSpec createOutputSpec() {
+		
+		final String[] rdtDesc = m_rdt.getStringArrayValue();
+		if (rdtDesc == null || rdtDesc.length == 0) {
+			return null;
+		}
+		
+		final ReaxysDataTypes rdt = ReaxysDataTypes.getReaxysDataType(rdtDesc[0]);
+		if (rdt == null) {
+			return null;
+		}
+		
+		// ordered, and without duplicates since column names must be unique
+		final LinkedHashSet<String> labels = new LinkedHashSet<String>();
+		
+		if (rdt.getAssociatedTypes() != null) {
+			for (final String associated : rdt.getAssociatedTypes()) {
+				addClassLabels(labels, associated);
+			}
+		}
+		addClassLabels(labels, rdt.getCode());
+		
+		// the reaction id is taken from the RY.STR element
+		if (rdt == ReaxysDataTypes.RY) {
+			labels.add(ReaxysFieldTypes.getLabel("RX.ID"));
+		}
+		
+		if (m_addstruct.getBooleanValue()) {
+			if (rdt.getContext().equals("R")) {
+				labels.add(ReaxysFieldTypes.getLabel("RX.ID"));
+				labels.add(ReaxysFieldTypes.getLabel("RY.STR"));
+			} else {
+				labels.add(ReaxysFieldTypes.getLabel("IDE.XRN"));
+				labels.add(ReaxysFieldTypes.getLabel("YY.STR"));
+			}
+		}
+		
+		labels.remove(QUERYCOLUMN);
+		labels.remove(RESULTCOUNTCOLUMN);
+		
+		final DataColumnSpec[] allColSpecs = new DataColumnSpec[labels.size() + 2];
+		allColSpecs[0] = new DataColumnSpecCreator(QUERYCOLUMN, StringCell.TYPE).createSpec();
+		allColSpecs[1] = new DataColumnSpecCreator(RESULTCOUNTCOLUMN, IntCell.TYPE).createSpec();
+		
+		int i = 2;
+		for (final String label : labels) {
+			allColSpecs[i++] = createColumnSpec(label);
+		}
+		
+		return new DataTableSpec(allColSpecs);
+	}
+	
+	
+	/**
+	 * add the labels of the fields in a data class, e.g. MP, but not the label of the class
+	 * itself e.g. MP.MP, which is not returned as data.
+	 * 
+	 * @param labels set of labels to add to
+	 * @param claz data class
+	 */
+	static void addClassLabels(final LinkedHashSet<String> labels, final String claz) {
+		
+		final String classLabel = ReaxysFieldTypes.getLabel(claz + "." + claz);
+		
+		for (final String label : ReaxysFieldTypes.getLabelsForClass(claz + ".")) {
+			if (!label.equals(classLabel)) {
+				labels.add(label);
+			}
+		}
+	}
+	
+	
 	/**
 	 * return true if the tag has structure data.
 	 * @param tag  tag to test
@@ -490,7 +786,12 @@ public abstract class NodeModelUtilities extends NodeModel {
 	protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
 			throws InvalidSettingsException {
 
-		return new DataTableSpec[] { null };
+		final DataTableSpec outputSpec = createOutputSpec();
+		
+		if (outputSpec == null) {
+			throw new InvalidSettingsException("unknown Reaxys data type");
+		}
+		return new DataTableSpec[] { outputSpec };
 	}
 	
 
@@ -503,6 +804,9 @@ public abstract class NodeModelUtilities extends NodeModel {
 		for (SettingsModel m : settingsList) {
 			m.saveSettingsTo(settings);
 		}
+		for (SettingsModel m : optionalSettings) {
+			m.saveSettingsTo(settings);
+		}
 
 	}
 
@@ -516,6 +820,11 @@ public abstract class NodeModelUtilities extends NodeModel {
 		for (SettingsModel m : settingsList) {
 			m.loadSettingsFrom(settings);
 		}
+		for (int i = 0; i < optionalSettings.length; i++) {
+			if (settings.containsKey(optionalKeys[i])) {
+				optionalSettings[i].loadSettingsFrom(settings);
+			}
+		}
 	}
 
 	/**
@@ -528,6 +837,11 @@ public abstract class NodeModelUtilities extends NodeModel {
 		for (SettingsModel m : settingsList) {
 			m.validateSettings(settings);
 		}
+		for (int i = 0; i < optionalSettings.length; i++) {
+			if (settings.containsKey(optionalKeys[i])) {
+				optionalSettings[i].validateSettings(settings);
+			}
+		}
 	}
 
 	/**
@@ -537,6 +851,14 @@ public abstract class NodeModelUtilities extends NodeModel {
 	protected void loadInternals(final File internDir,
 			final ExecutionMonitor exec) throws IOException,
 			CanceledExecutionException {
+		
+		// restore the response cache that was saved with the node
+		final File saved = new File(internDir, CACHE_INTERNALS);
+		if (saved.isDirectory()) {
+			deleteNodeCache();
+			nodeCacheDir = Files.createTempDirectory("ReaxysCache").toFile();
+			ResponseCache.copyEntries(saved, nodeCacheDir);
+		}
 	}
 
 	/**
@@ -546,6 +868,11 @@ public abstract class NodeModelUtilities extends NodeModel {
 	protected void saveInternals(final File internDir,
 			final ExecutionMonitor exec) throws IOException,
 			CanceledExecutionException {
+		
+		// a shared cache directory persists by itself; only the node's own cache is saved
+		if (nodeCacheDir != null && (m_cache.getBooleanValue() || m_structureCache.getBooleanValue())) {
+			ResponseCache.copyEntries(nodeCacheDir, new File(internDir, CACHE_INTERNALS));
+		}
 	}
 
 }
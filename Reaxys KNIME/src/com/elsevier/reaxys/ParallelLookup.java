@@ -0,0 +1,157 @@
+package com.elsevier.reaxys;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.node.ExecutionMonitor;
+
+import com.elsevier.reaxys.xml.ReaxysAPI;
+import com.elsevier.reaxys.xml.SearchPoller;
+
+/**
+ * runs lookups on a bounded pool of worker threads.  Results are handed back in the
+ * order the lookups were submitted, so the output rows keep the order of the input rows
+ * even though the queries overlap on the network.
+ *
+ * At most twice the number of workers are kept in flight so that a slow row does not
+ * cause the whole input table to be queued up in memory.  Lookups whose search was sent
+ * ahead only take a worker once the search is ready, so more of them can be in flight.
+ *
+ * @param <T> result of a single lookup
+ */
+class ParallelLookup<T> {
+
+	/*
+	 * how often to check for cancellation while waiting for a result, in milliseconds
+	 */
+	static final long POLL_MS = 250;
+
+	private final ExecutorService pool;
+	private final LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+	private final int window;
+
+	/**
+	 * create the worker pool
+	 *
+	 * @param concurrency number of lookups to run at the same time
+	 * @param ahead number of lookups whose searches are sent ahead of the workers
+	 */
+	ParallelLookup(final int concurrency, final int ahead) {
+
+		final int workers = Math.max(1, concurrency);
+		window = Math.max(2 * workers, ahead);
+
+		pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+
+			final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "Reaxys lookup-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * return true if no more lookups should be submitted until a result is taken
+	 *
+	 * @return true if the window of pending lookups is full
+	 */
+	boolean isFull() {
+		return pending.size() >= window;
+	}
+
+	/**
+	 * return true if there are no pending lookups
+	 *
+	 * @return true if all results have been taken
+	 */
+	boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	/**
+	 * queue a lookup on the worker pool
+	 *
+	 * @param task lookup to run
+	 */
+	void submit(final Callable<T> task) {
+		pending.add(pool.submit(task));
+	}
+
+	/**
+	 * queue a lookup whose search is sent ahead.  The poller sends the search, and the
+	 * lookup is run on the worker pool when the poller finds that the search is ready.
+	 *
+	 * @param task lookup to run
+	 * @param reaxys API object the search is sent with
+	 * @param send sends the search
+	 * @param poller poller for the search
+	 */
+	void submit(final Callable<T> task, final ReaxysAPI reaxys, final Runnable send, final SearchPoller poller) {
+
+		final FutureTask<T> future = new FutureTask<T>(task);
+		pending.add(future);
+		poller.start(reaxys, send, future, pool);
+	}
+
+	/**
+	 * wait for the oldest pending lookup and return its result.  The wait checks for
+	 * cancellation regularly so that cancelling the node takes effect quickly.
+	 *
+	 * @param exec execution monitor used to check for cancellation
+	 * @return result of the oldest lookup
+	 * @throws Exception the exception thrown by the lookup, or CanceledExecutionException
+	 */
+	T next(final ExecutionMonitor exec) throws Exception {
+
+		final Future<T> future = pending.removeFirst();
+
+		while (true) {
+
+			if (exec != null) {
+				try {
+					exec.checkCanceled();
+				} catch (Exception e) {
+					future.cancel(true);
+					throw e;
+				}
+			}
+
+			try {
+				return future.get(POLL_MS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// still running, check cancellation and wait again
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * cancel pending lookups and stop the workers.
+	 */
+	void shutdown() {
+
+		for (final Future<T> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		pool.shutdownNow();
+	}
+}
@@ -49,6 +49,7 @@ import org.knime.core.node.defaultnodesettings.DialogComponentStringListSelectio
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 
 import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 
@@ -171,6 +172,13 @@ public class ReaxysLookupNodeDialog extends DefaultNodeSettingsPane implements A
 						ReaxysLookupNodeModel.CFGKEY_SAMPLE_DEFAULT),
 				ReaxysLookupNodeModel.CFGLABEL_SAMPLE);
 		
+		DialogComponentNumber seed =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_SEED, 
+						ReaxysLookupNodeModel.CFGKEY_SEED_DEFAULT,
+						-1, Integer.MAX_VALUE), 
+				ReaxysLookupNodeModel.CFGLABEL_SEED, 
+				1, 10);
+		
 		DialogComponentString sort = new DialogComponentString(
 				new SettingsModelString(ReaxysLookupNodeModel.CFGKEY_SORT, 
 						ReaxysLookupNodeModel.CFGKEY_SORT_DEFAULT),
@@ -180,11 +188,100 @@ public class ReaxysLookupNodeDialog extends DefaultNodeSettingsPane implements A
 
 		createNewGroup("Data Subsets");
 		addDialogComponent(sampling);
+		addDialogComponent(seed);
 		
 		
 		addDialogComponent(maxResults);
 		addDialogComponent(startResult);
 		closeCurrentGroup();
+		
+		DialogComponentNumber concurrency =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_CONCURRENCY, 
+						ReaxysLookupNodeModel.CFGKEY_CONCURRENCY_DEFAULT,
+						1, ReaxysLookupNodeModel.CFGKEY_CONCURRENCY_MAX), 
+				ReaxysLookupNodeModel.CFGLABEL_CONCURRENCY, 
+				1, 3);
+		
+		DialogComponentNumber batchSize =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_BATCHSIZE, 
+						ReaxysLookupNodeModel.CFGKEY_BATCHSIZE_DEFAULT,
+						1, ReaxysLookupNodeModel.CFGKEY_BATCHSIZE_MAX), 
+				ReaxysLookupNodeModel.CFGLABEL_BATCHSIZE, 
+				1, 3);
+		
+		DialogComponentNumber searchAhead =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_SEARCHAHEAD, 
+						ReaxysLookupNodeModel.CFGKEY_SEARCHAHEAD_DEFAULT,
+						0, ReaxysLookupNodeModel.CFGKEY_SEARCHAHEAD_MAX), 
+				ReaxysLookupNodeModel.CFGLABEL_SEARCHAHEAD, 
+				1, 3);
+		
+		DialogComponentNumber connections =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_CONNECTIONS, 
+						ReaxysLookupNodeModel.CFGKEY_CONNECTIONS_DEFAULT,
+						1, ReaxysLookupNodeModel.CFGKEY_CONNECTIONS_MAX), 
+				ReaxysLookupNodeModel.CFGLABEL_CONNECTIONS, 
+				1, 3);
+		
+		DialogComponentNumber prefetch =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_PREFETCH, 
+						ReaxysLookupNodeModel.CFGKEY_PREFETCH_DEFAULT,
+						0, ReaxysLookupNodeModel.CFGKEY_PREFETCH_MAX), 
+				ReaxysLookupNodeModel.CFGLABEL_PREFETCH, 
+				1, 3);
+		
+		DialogComponentNumber pollInterval =  new DialogComponentNumber(
+				new SettingsModelIntegerBounded(ReaxysLookupNodeModel.CFGKEY_POLLINTERVAL, 
+						ReaxysLookupNodeModel.CFGKEY_POLLINTERVAL_DEFAULT,
+						1, ReaxysLookupNodeModel.CFGKEY_POLLINTERVAL_MAX), 
+				ReaxysLookupNodeModel.CFGLABEL_POLLINTERVAL, 
+				5, 3);
+		
+		createNewGroup("Performance");
+		addDialogComponent(concurrency);
+		addDialogComponent(batchSize);
+		addDialogComponent(searchAhead);
+		addDialogComponent(connections);
+		addDialogComponent(prefetch);
+		addDialogComponent(pollInterval);
+		addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(
+				ReaxysLookupNodeModel.CFGKEY_STREAMPARSER,
+				ReaxysLookupNodeModel.CFGKEY_STREAMPARSER_DEFAULT),
+				ReaxysLookupNodeModel.CFGLABEL_STREAMPARSER));
+		addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(
+				ReaxysLookupNodeModel.CFGKEY_LAZYPAYLOADS,
+				ReaxysLookupNodeModel.CFGKEY_LAZYPAYLOADS_DEFAULT),
+				ReaxysLookupNodeModel.CFGLABEL_LAZYPAYLOADS));
+		addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(
+				ReaxysLookupNodeModel.CFGKEY_JOINPARENTS,
+				ReaxysLookupNodeModel.CFGKEY_JOINPARENTS_DEFAULT),
+				ReaxysLookupNodeModel.CFGLABEL_JOINPARENTS));
+		closeCurrentGroup();
+
+		createNewGroup("Response Cache");
+		addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(
+				ReaxysLookupNodeModel.CFGKEY_CACHE,
+				ReaxysLookupNodeModel.CFGKEY_CACHE_DEFAULT),
+				ReaxysLookupNodeModel.CFGLABEL_CACHE));
+		addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(
+				ReaxysLookupNodeModel.CFGKEY_STRUCTURECACHE,
+				ReaxysLookupNodeModel.CFGKEY_STRUCTURECACHE_DEFAULT),
+				ReaxysLookupNodeModel.CFGLABEL_STRUCTURECACHE));
+		addDialogComponent(new DialogComponentString(new SettingsModelString(
+				ReaxysLookupNodeModel.CFGKEY_CACHEDIR,
+				ReaxysLookupNodeModel.CFGKEY_CACHEDIR_DEFAULT),
+				ReaxysLookupNodeModel.CFGLABEL_CACHEDIR, false, 30));
+		addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(
+				ReaxysLookupNodeModel.CFGKEY_CACHELIFETIME,
+				ReaxysLookupNodeModel.CFGKEY_CACHELIFETIME_DEFAULT,
+				1, Integer.MAX_VALUE),
+				ReaxysLookupNodeModel.CFGLABEL_CACHELIFETIME, 1, 5));
+		addDialogComponent(new DialogComponentNumber(new SettingsModelIntegerBounded(
+				ReaxysLookupNodeModel.CFGKEY_CACHESIZE,
+				ReaxysLookupNodeModel.CFGKEY_CACHESIZE_DEFAULT,
+				1, Integer.MAX_VALUE),
+				ReaxysLookupNodeModel.CFGLABEL_CACHESIZE, 64, 5));
+		closeCurrentGroup();
 
 		addDialogComponent(new DialogComponentBoolean(new SettingsModelBoolean(
 				ReaxysLookupNodeModel.CFGKEY_DEBUG,
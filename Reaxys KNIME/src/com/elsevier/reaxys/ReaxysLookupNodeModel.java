@@ -1,23 +1,36 @@
 package com.elsevier.reaxys;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
-import org.knime.core.data.DataColumnSpec;
-import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.RowKey;
-import org.knime.core.data.def.IntCell;
-import org.knime.core.data.def.StringCell;
 import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.ExecutionContext;
-import org.knime.chem.types.RxnCell;
-import org.knime.chem.types.SdfCell;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.port.PortObjectSpec;
+import org.knime.core.node.streamable.InputPortRole;
+import org.knime.core.node.streamable.OutputPortRole;
+import org.knime.core.node.streamable.PartitionInfo;
+import org.knime.core.node.streamable.PortInput;
+import org.knime.core.node.streamable.PortOutput;
+import org.knime.core.node.streamable.RowInput;
+import org.knime.core.node.streamable.RowOutput;
+import org.knime.core.node.streamable.StreamableOperator;
 
 import com.elsevier.reaxys.xml.ReaxysAPI;
+import com.elsevier.reaxys.xml.ResponseCache;
+import com.elsevier.reaxys.xml.SearchPoller;
+import com.elsevier.reaxys.xml.StructureCache;
 import com.elsevier.reaxys.xml.ReaxysDocument.ReaxysDocument;
 
 
@@ -50,63 +63,280 @@ public class ReaxysLookupNodeModel extends NodeModelUtilities{
 	}
 
 	/**
-	 * create the initial output table based on the column set returned in the hashmap.
-	 * 
-	 * @param data
-	 *            arraylist of hashmaps with the tagged data
-	 * @param exec
-	 *            KNIME Execution context
-	 * @return Buffered Data Container
+	 * result of the lookup for one input row
+	 */
+	static class RowResult {
+		
+		final String id;
+		final List<ResultRecord> results;
+		final int numberOfResults;
+		
+		RowResult(final String id, final List<ResultRecord> results, final int numberOfResults) {
+			this.id = id;
+			this.results = results;
+			this.numberOfResults = numberOfResults;
+		}
+	}
+	
+	
+	/**
+	 * do the search for the value of one input row.  This is called from the worker threads,
+	 * so it only reads the settings and uses its own API object for the query state.
 	 * 
+	 * @param reaxys API object for this lookup
+	 * @param id query value from the input row
+	 * @param rdt type of data to return
+	 * @return results for this row
+	 * @throws Exception on error
 	 */
-	final BufferedDataContainer createTable(final List<HashMap<String, String>> data,
-			final ExecutionContext exec) {
-
-		final Set<String> cols = ReaxysAPI.keySet(data);
+	RowResult lookupRow(final ReaxysAPI reaxys, final String id, final ReaxysDataTypes rdt) throws Exception {
 		
-		/* 
-		 * translate to nice names
-		 */
-		final String[] colnames = cols.toArray(new String[cols.size()]);
+		final String[] rowQuery = rowQuery(id);
+		final String idType = rowQuery[0];
+		final String query = rowQuery[1];
 
-		// the data table spec of the single output table,
-		// the table will have three columns:
-		final int offset = 2;
-		final DataColumnSpec[] allColSpecs = new DataColumnSpec[colnames.length + offset];
+		// do the search on this molecule, the one in this row if the
+		// input table.
+		final long start = System.currentTimeMillis();
+		
+		// do the search
+		final List<ResultRecord> resultTable = reaxys
+				.getFact(idType, 	// root of query, e.g. IDE.XRN
+						id, 		// value for query
+						query, 		// additional query string
+						rdt,
+						startResult.getIntValue(), // startrecord to return in resultset
+						maxResults.getIntValue(),  // maximum results to return
+						m_sample.getBooleanValue(),  // random sampling if maxResults is not -1
+						m_addstruct.getBooleanValue(),// try to add structures to file
+						v3sdfile.getBooleanValue(),  //  for adding structures, tell which kind
+						m_sort.getStringValue()); // optional sorting string
+
+		final String message = String.format(
+				"Reaxys search for %15s took %5d ms", 
+				id.substring(0, Math.min(id.length(), 30)),
+				System.currentTimeMillis() - start);
+
+		logger.info(message);
 		
-		allColSpecs[0] = new DataColumnSpecCreator(QUERYCOLUMN,
-				StringCell.TYPE).createSpec();
+		return new RowResult(id, resultTable, reaxys.size());
+	}
+	
+	
+	/**
+	 * send the search for the value of one input row, without waiting for it, so the next
+	 * {@link #lookupRow} with the same API object retrieves the results of this search.
+	 * 
+	 * @param reaxys API object for this lookup
+	 * @param id query value from the input row
+	 * @param rdt type of data to return
+	 */
+	void startRow(final ReaxysAPI reaxys, final String id, final ReaxysDataTypes rdt) {
+		
+		final String[] rowQuery = rowQuery(id);
+		
+		try {
+			reaxys.submitSearch(rowQuery[0], id, rowQuery[1], rdt, 
+					startResult.getIntValue(), maxResults.getIntValue(), m_sample.getBooleanValue(), 
+					m_addstruct.getBooleanValue(), v3sdfile.getBooleanValue(), m_sort.getStringValue());
+		} catch (Exception e) {
+			// the lookup sends the search again
+			logger.info("Reaxys: search could not be sent ahead: " + e);
+		}
+	}
+	
+	
+	/**
+	 * get the query field and query for the value of one input row
+	 * 
+	 * @param id query value from the input row
+	 * @return query field, e.g. IDE.XRN, and additional query
+	 */
+	String[] rowQuery(final String id) {
 		
-		allColSpecs[1] = new DataColumnSpecCreator(RESULTCOUNTCOLUMN,
-				IntCell.TYPE).createSpec();
+		/*
+		 * reset these values from the dialog because if this is a structure search
+		 * they are changed below - bug found by Roland  8-Jan-2015
+		 */
+		String idType = m_idtype.getStringValue();
+		String query = m_query.getStringValue();
 
-		for (int i = offset; i < colnames.length + offset; i++) {
+		// fix query if reaction or strukture
+		final String lowerCaseIdType = idType.toLowerCase();
+		// structure search
+		if (lowerCaseIdType.startsWith("yy") || lowerCaseIdType.startsWith("struc")) {
 			
-			// make a structure column into a molecule column.
-			if (isStructureTag(colnames[i-offset])) {
-				allColSpecs[i] = new DataColumnSpecCreator(colnames[i - offset],
-						SdfCell.TYPE).createSpec();
-			} else if (isReactionTag(colnames[i-offset])) { 
-				allColSpecs[i] = new DataColumnSpecCreator(colnames[i - offset],
-						RxnCell.TYPE).createSpec();
+			final String tempquery = makeMoleculeQuery("compound", id);
+			if (!query.equals("")) {
+				query = tempquery + " AND " + query;
 			} else {
+				query = tempquery;
+			}
+			
+			idType = "";
+		// reaction search
+		} else if (lowerCaseIdType.startsWith("ry") || lowerCaseIdType.startsWith("reac")) {
 			
-				allColSpecs[i] = new DataColumnSpecCreator(colnames[i - offset],
-					StringCell.TYPE).createSpec();
+			final String tempquery = makeMoleculeQuery("reaction", id);
+			if (!query.equals("")) {
+				query = tempquery + " AND " + query;
+			} else {
+				query = tempquery;
 			}
+			idType = "";
 		}
-
-		final DataTableSpec outputSpec = new DataTableSpec(allColSpecs);
-
-		return exec.createDataContainer(outputSpec);
-
+		
+		return new String[] {idType, query};
 	}
-
+	
+	
+	/**
+	 * do the search for the values of several input rows.  If the identifiers are record
+	 * numbers, IDE.XRN for substances or RX.ID for reactions, they are searched together and the
+	 * records are given back to their rows by the identifier.  Each identifier finds at most one
+	 * record, so the result count of a row is 1 if it was found.  Otherwise, or if the records
+	 * can't be matched to the rows, each row is searched on its own.
+	 * 
+	 * @param reaxys API object for this lookup
+	 * @param ids query values from the input rows
+	 * @param rdt type of data to return
+	 * @return results for the rows, in the order of the ids
+	 * @throws Exception on error
+	 */
+	List<RowResult> lookupRows(final ReaxysAPI reaxys, final List<String> ids, final ReaxysDataTypes rdt) 
+			throws Exception {
+		
+		final List<RowResult> results = new ArrayList<RowResult>(ids.size());
+		final String idType = m_idtype.getStringValue().trim().toUpperCase();
+		
+		if (ids.size() > 1 && !m_sample.getBooleanValue() && startResult.getIntValue() <= 1
+				&& (idType.equals("IDE.XRN") && rdt.getContext().equals("S")
+						|| idType.equals("RX.ID") && rdt.getContext().equals("R"))) {
+			
+			// record numbers the way they are returned, so the records can be matched
+			final List<String> numbers = new ArrayList<String>(ids.size());
+			
+			for (final String id : ids) {
+				try {
+					numbers.add(Long.toString(Long.parseLong(id.trim())));
+				} catch (NumberFormatException e) {
+					break;
+				}
+			}
+			
+			if (numbers.size() == ids.size()) {
+				
+				final long start = System.currentTimeMillis();
+				
+				final Map<String, List<ResultRecord>> batch = reaxys.getFactBatch(idType, 
+						numbers, m_query.getStringValue(), rdt, m_addstruct.getBooleanValue(), 
+						v3sdfile.getBooleanValue(), m_sort.getStringValue());
+				
+				if (batch != null) {
+					
+					logger.info(String.format("Reaxys search for %d identifiers took %5d ms", 
+							ids.size(), System.currentTimeMillis() - start));
+					
+					for (int i = 0; i < ids.size(); i++) {
+						
+						// rows with the same identifier each get their own copy of the records 
+						final List<ResultRecord> rowTable = new ArrayList<ResultRecord>();
+						for (final ResultRecord record : batch.get(numbers.get(i))) {
+							rowTable.add(new ResultRecord(record));
+						}
+						
+						results.add(new RowResult(ids.get(i), rowTable, rowTable.isEmpty() ? 0 : 1));
+					}
+					return results;
+				}
+				
+				logger.info("Reaxys: results can't be matched to the identifiers, searching them one at a time");
+			}
+		}
+		
+		for (final String id : ids) {
+			results.add(lookupRow(new ReaxysAPI(reaxys), id, rdt));
+		}
+		return results;
+	}
+	
+	
+	/**
+	 * queue the lookup of the next input rows.  With searches sent ahead, the poller sends
+	 * the search of a single row, and the lookup only takes a worker once the search is ready.
+	 * This thread does not wait for any requests.
+	 * 
+	 * @param lookups worker pool
+	 * @param poller poller of the searches sent ahead, or null to send them from the lookup
+	 * @param reaxys API object of the session
+	 * @param ids query values of the input rows
+	 * @param rdt type of data to return
+	 */
+	void submitLookup(final ParallelLookup<List<RowResult>> lookups, final SearchPoller poller, 
+			final ReaxysAPI reaxys, final List<String> ids, final ReaxysDataTypes rdt) {
+		
+		if (poller != null && ids.size() == 1) {
+			
+			final String id = ids.get(0);
+			final ReaxysAPI rowReaxys = new ReaxysAPI(reaxys);
+			
+			lookups.submit(new Callable<List<RowResult>>() {
+				@Override
+				public List<RowResult> call() throws Exception {
+					return Collections.singletonList(lookupRow(rowReaxys, id, rdt));
+				}
+			}, rowReaxys, new Runnable() {
+				@Override
+				public void run() {
+					startRow(rowReaxys, id, rdt);
+				}
+			}, poller);
+			
+		} else {
+			
+			lookups.submit(new Callable<List<RowResult>>() {
+				@Override
+				public List<RowResult> call() throws Exception {
+					// each lookup has its own query state, but shares the session
+					return lookupRows(new ReaxysAPI(reaxys), ids, rdt);
+				}
+			});
+		}
+	}
+	
+	
+	/**
+	 * input rows to look up
+	 */
+	interface RowSource {
+		
+		/**
+		 * @return the next input row, or null if there are no more
+		 * @throws Exception on error
+		 */
+		DataRow next() throws Exception;
+	}
+	
+	
+	/**
+	 * takes the output rows, in the order of the input rows
+	 */
+	interface RowSink {
+		
+		/**
+		 * @param row output row
+		 * @throws Exception on error
+		 */
+		void add(DataRow row) throws Exception;
+	}
+	
 	
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * Execute interface.
+	 * Execute interface.  Input rows are looked up on a pool of worker threads, and the
+	 * results are written to the output in the order of the input rows.  The output has the
+	 * columns predicted in configure, so it is written straight into the table.
 	 */
 	@SuppressWarnings("deprecation")
 	@Override
@@ -119,195 +349,285 @@ public class ReaxysLookupNodeModel extends NodeModelUtilities{
 		
 		// identifier data
 		final BufferedDataTable inputData = inData[0];
-		
-		/* get configuration values */
-		final boolean debug = m_debug.getBooleanValue();
-
-		final String rdt_desc = m_rdt.getStringArrayValue()[0];  // can return array in future
-		final ReaxysDataTypes rdt = ReaxysDataTypes.getReaxysDataType(rdt_desc);
+		final Iterator<DataRow> rows = inputData.iterator();
 
-		// if this is true, instead of getting the top N values, get a uniform sampling
-		final boolean useSampling = m_sample.getBooleanValue();
+		final DataTableSpec outputSpec = createOutputSpec();
 		
-		final String sortString = m_sort.getStringValue();
-
-		BufferedDataContainer outputTable = null;
+		if (outputSpec == null) {
+			throw new InvalidSettingsException("unknown Reaxys data type");
+		}
+		
+		final BufferedDataContainer container = exec.createDataContainer(outputSpec);
 
+		try {
+			
+			lookup(new RowSource() {
+				@Override
+				public DataRow next() {
+					return rows.hasNext() ? rows.next() : null;
+				}
+			}, getQueryColumn(inputData.getDataTableSpec()), inputData.getRowCount(), outputSpec, new RowSink() {
+				@Override
+				public void add(final DataRow row) {
+					container.addRowToTable(row);
+				}
+			}, exec);
+			
+		} finally {
+			container.close();
+		}
+		
+		return new BufferedDataTable[] { container.getTable() };
+	}
+	
+	
+	/**
+	 * look up the input rows and give the results to the sink in the order of the input rows.
+	 * The session, the worker threads and the caches are set up here for both execute and
+	 * stream, so both run the lookups the same way.  The rows have the columns of the output
+	 * spec; values of any other fields are dropped.
+	 * 
+	 * @param input input rows
+	 * @param colNumber index of the query column of the input
+	 * @param totalRows number of input rows, or -1 if not known
+	 * @param outputSpec spec of the output rows
+	 * @param sink takes the output rows
+	 * @param exec KNIME execution context
+	 * @throws Exception on error, or CanceledExecutionException if the node was cancelled
+	 */
+	void lookup(final RowSource input, final int colNumber, final long totalRows,
+			final DataTableSpec outputSpec, final RowSink sink, final ExecutionContext exec) throws Exception {
+		
+		final ReaxysDataTypes rdt = ReaxysDataTypes.getReaxysDataType(m_rdt.getStringArrayValue()[0]);
+		
 		// create login document
 		final ReaxysDocument ra = new ReaxysDocument(m_url.getStringValue(),
 				m_apikey.getStringValue(), m_username.getStringValue(),
 				m_password.getStringValue());
+		ra.getIO().setMaxConnections(m_connections.getIntValue());
+		
+		// worker threads for the row lookups
+		final ParallelLookup<List<RowResult>> lookups = new ParallelLookup<List<RowResult>>(
+				m_concurrency.getIntValue(), m_searchAhead.getIntValue());
+		
+		// polls the searches that are sent ahead, if any
+		final SearchPoller poller = m_searchAhead.getIntValue() > 0 && m_batchSize.getIntValue() == 1 
+				? new SearchPoller(m_connections.getIntValue()) : null;
+		
+		// results of earlier executions, or null if not caching
+		final ResponseCache cache = getResponseCache();
+		
+		// structures added to the results, shared by all rows
+		final StructureCache structures = getStructureCache(cache);
+		
+		// fields that were returned but are not in the output spec, so they are only logged once
+		final Set<String> droppedColumns = new HashSet<String>();
 
 		try {
-
+			
 			// login
-			final ReaxysAPI reaxys = new ReaxysAPI(exec, ra, debug);
+			final ReaxysAPI reaxys = new ReaxysAPI(exec, ra, m_debug.getBooleanValue());
+			reaxys.setCache(cache);
+			reaxys.setStructureCache(structures);
+			reaxys.setStreamingParser(m_streamParser.getBooleanValue());
+			reaxys.setLazyPayloads(m_lazyPayloads.getBooleanValue());
+			reaxys.setJoinParents(m_joinParents.getBooleanValue());
+			reaxys.setSampleSeed(m_seed.getIntValue());
+			reaxys.setPrefetch(m_prefetch.getIntValue());
+			reaxys.setMaxPollInterval(m_pollInterval.getIntValue());
 
 			if (!ra.login()) {
 				logger.fatal("error logging in to Reaxys server");
-				return null;
+				throw new IOException("error logging in to Reaxys server");
 			}
-
-
 			logger.debug("Reaxys: login to Reaxys server successful");
+			
+			final int batchSize = m_batchSize.getIntValue();
 			int inputRowCount = 0;
 			int outputRowCount = 0;
 			
-			final int totalRows = inputData.getRowCount();
-
-			if (totalRows == 0) {
-				logger.info("Reaxys: no input queries");
-				return null;
-			}
-
-
-			// get the column for query from the input.  default is 0, the first
-			// column.  The result is "colNumber"
-			final String columnName = m_column.getStringValue();
-			int colNumber = 0;
-			final String[] candidateData = inputData.getDataTableSpec().getColumnNames();
-			
-			for (int col = 0 ; col < candidateData.length; col++) {
-				if (columnName.equals(candidateData[col])) {
-					colNumber = col;
-					break;
-				}
-			}
+			DataRow row = input.next();
 			
-						
 			/*
-			 * loop over input data rows, if it isn't null.
+			 * loop over input data rows.  Keep the workers busy, and take the results in
+			 * input order.
 			 */
-			for (final DataRow row : inputData) {
-
-				inputRowCount++;
-				//use first column, 0, for the query
-				final String id = row.getCell(colNumber).toString();
-				/*
-				 * reset these values from the dialog because if this is a structure search
-				 * they are changed below - bug found by Roland  8-Jan-2015
-				 */
-				String idType = m_idtype.getStringValue();
-				String query = m_query.getStringValue();
-
-				// do the search on this molecule, the one in this row if the
-				// input table.
-				final long start = System.currentTimeMillis();
-
-				// fix query if reaction or strukture
-				final String lowerCaseIdType = idType.toLowerCase();
-				// structure search
-				if (lowerCaseIdType.startsWith("yy") || lowerCaseIdType.startsWith("struc")) {
+			while (row != null || !lookups.isEmpty()) {
+				
+				while (row != null && !lookups.isFull()) {
 					
-					final String tempquery = makeMoleculeQuery("compound", id);
-					if (!query.equals("")) {
-						query = tempquery + " AND " + query;
-					} else {
-						query = tempquery;
+					// the next rows that are searched together
+					final List<String> ids = new ArrayList<String>(batchSize);
+					while (row != null && ids.size() < batchSize) {
+						ids.add(row.getCell(colNumber).toString());
+						row = input.next();
 					}
 					
-					idType = "";
-				// reaction search
-				} else if (lowerCaseIdType.startsWith("ry") || lowerCaseIdType.startsWith("reac")) {
-					
-					final String tempquery = makeMoleculeQuery("reaction", id);
-					if (!query.equals("")) {
-						query = tempquery + " AND " + query;
-					} else {
-						query = tempquery;
-					}
-					idType = "";
+					submitLookup(lookups, poller, reaxys, ids, rdt);
 				}
 				
-				// do the search
-				final List<HashMap<String, String>> resultTable = reaxys
-						.getFact(idType, 	// root of query, e.g. IDE.XRN
-								id, 		// value for query
-								query, 		// additional query string
-								rdt,
-								startResult.getIntValue(), // startrecord to return in resultset
-								maxResults.getIntValue(),  // maximum results to return
-								useSampling,  // random sampling if maxResults is not -1
-								m_addstruct.getBooleanValue(),// try to add structures to file
-								v3sdfile.getBooleanValue(),  //  for adding structures, tell which kind
-								sortString); // optional sorting string
-
-				final int numberOfResults = reaxys.size();
-				
-				final String message = String.format(
-						"Reaxys search for %15s took %5d ms", 
-						id.substring(0, Math.min(id.length(), 30)),
-						System.currentTimeMillis() - start);
-
-				logger.info(message);
-
-				// this counts on all of the subsequent rows containing tables
-				// like the first
-				if (outputTable == null && resultTable.size() > 0) {
-					outputTable = createTable(resultTable, exec);
-				}
+				for (final RowResult rowResult : lookups.next(exec)) {
+					inputRowCount++;
 				
-				// if we've hit a row that had a result, now start collecting the
-				// data. Without this 'if' it would fail if the first row didn't have
-				// any data
-				if (outputTable != null) {
-					
 					// loop over multiple results from this query row
-					for (int i = 0; i < resultTable.size(); i++) {
-						// if the query is very long, like a molecule or reaction
-						//use the hashcode. very long here is 15 characters. add the
-						// input table row count to help insure uniqueness since the
-						// row labels must be unique
-						String rowLabel = String.valueOf(++outputRowCount);
-						
-						final RowKey key = new RowKey(rowLabel + "_" + inputRowCount);
-						// prepend molecule id as column
-						HashMap<String, String> rowData = resultTable.get(i);
-						
-						// fix up data columns if this row has new columns
-						outputTable = fixDataTableColumns(exec, outputTable, rowData);
-
+					for (final ResultRecord rowData : rowResult.results) {
+					
 						if (rowData == null) {
 							continue;
 						}
+					
+						for (final String colName : rowData.keySet()) {
+							if (!outputSpec.containsName(colName) && droppedColumns.add(colName)) {
+								logger.info("output col " + colName + " not in table, dropping it");
+							}
+						}
+					
+						// prepend molecule id as column
+						rowData.put(QUERYCOLUMN, rowResult.id);
+					
+						// the input row count is added to the key since row keys must be unique
+						final RowKey key = new RowKey(++outputRowCount + "_" + inputRowCount);
+						sink.add(createDataRow(outputSpec, key, rowData, rowResult.numberOfResults));
+					}
 				
-						rowData.put(QUERYCOLUMN, id);
-						
-						final DataRow newRow = createDataRow(outputTable, 
-								key,rowData,
-								numberOfResults);
-
-						outputTable.addRowToTable(newRow);
-						
-					} // end of loop over results from this row
+					rowResult.results.clear(); // delete results
 				}
-				resultTable.clear(); // delete results
 				exec.checkCanceled();
+				
 				// update of status is in the call that is retrieving the data
-				float progress = (float)inputRowCount/inputData.getRowCount();
-				exec.setProgress(progress);
+				if (totalRows > 0) {
+					exec.setProgress((double) inputRowCount / totalRows);
+				} else {
+					exec.setMessage(String.format("looked up %d rows, %d results", inputRowCount, outputRowCount));
+				}
 			} // end of loop over input table rows
-
+			
 			exec.setMessage("search complete");
 			
 		} catch (final Exception e) {
+			// cancellation and errors fail the node, so a truncated output isn't taken as a result
 			logger.error(e);
-			e.printStackTrace();
-		} 
+			throw e;
+		} finally {
+			if (poller != null) {
+				poller.shutdown();
+			}
+			lookups.shutdown();
+			if (cache != null) {
+				logger.info(cache.report());
+			}
+			if (structures != null) {
+				logger.info(structures.report());
+			}
+		}
+	}
+	
+	
+	/**
+	 * get the column for query from the input.  default is 0, the first
+	 * column.
+	 * 
+	 * @param inSpec spec of the input table
+	 * @return index of the query column
+	 */
+	int getQueryColumn(final DataTableSpec inSpec) {
 		
-		/*
-		 * once we are done, we close the container and return its table. return
-		 * empty table on error or null output.
-		 */
-		if (outputTable != null) {
-			outputTable.close();
-			final BufferedDataTable out = outputTable.getTable();
-			return new BufferedDataTable[] { out };
+		final String columnName = m_column.getStringValue();
+		final String[] candidateData = inSpec.getColumnNames();
+		
+		for (int col = 0 ; col < candidateData.length; col++) {
+			if (columnName.equals(candidateData[col])) {
+				return col;
+			}
+		}
+		return 0;
+	}
+	
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The input rows are only read once, in order, so they can be streamed.
+	 */
+	@Override
+	public InputPortRole[] getInputPortRoles() {
+		return new InputPortRole[] { InputPortRole.NONDISTRIBUTED_STREAMABLE };
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Not distributed because all rows share one login session and one row counter.
+	 */
+	@Override
+	public OutputPortRole[] getOutputPortRoles() {
+		return new OutputPortRole[] { OutputPortRole.NONDISTRIBUTED };
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Streaming execution: output rows are pushed downstream as soon as the lookup for their input
+	 * row completes, instead of being collected into a table first.
+	 */
+	@Override
+	public StreamableOperator createStreamableOperator(final PartitionInfo partitionInfo,
+			final PortObjectSpec[] inSpecs) throws InvalidSettingsException {
+		
+		final DataTableSpec outputSpec = createOutputSpec();
+		
+		if (outputSpec == null) {
+			throw new InvalidSettingsException("unknown Reaxys data type");
+		}
+		
+		return new StreamableOperator() {
+			
+			@Override
+			public void runFinal(final PortInput[] inputs, final PortOutput[] outputs,
+					final ExecutionContext exec) throws Exception {
+				
+				stream((RowInput) inputs[0], (RowOutput) outputs[0], outputSpec, exec);
+			}
+		};
+	}
+	
+	
+	/**
+	 * look up the rows of the input and push the results to the output as they arrive.  This
+	 * is the streaming version of execute.
+	 * 
+	 * @param input  input rows
+	 * @param output output rows
+	 * @param outputSpec spec of the output rows
+	 * @param exec KNIME execution context
+	 * @throws Exception on error
+	 */
+	void stream(final RowInput input, final RowOutput output, final DataTableSpec outputSpec,
+			final ExecutionContext exec) throws Exception {
+		
+		logger.info("Reaxys lookup node started, streaming");
+		exec.setMessage("starting query");
+		
+		try {
+			
+			lookup(new RowSource() {
+				@Override
+				public DataRow next() throws Exception {
+					return input.poll();
+				}
+			}, getQueryColumn(input.getDataTableSpec()), -1, outputSpec, new RowSink() {
+				@Override
+				public void add(final DataRow row) throws Exception {
+					output.push(row);
+				}
+			}, exec);
+			
+			// the output is only complete if all rows were looked up
+			output.close();
+			
+		} finally {
+			input.close();
 		}
-		/*
-		 * if no results return an empty table
-		 */
-		return emptyTable(exec); 
 	}
 	
 	
@@ -0,0 +1,420 @@
+package com.elsevier.reaxys;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.elsevier.reaxys.xml.CompressedPayload;
+
+/**
+ * a result record: the values of the fields of one output row, by field label.  A record
+ * only has a few of the fields of its data type, so instead of a hash table it keeps the
+ * column indexes of its fields from the {@link FieldSchema}, sorted, and their values in
+ * two arrays.  A field is found by the index of its label and a binary search.
+ *
+ * The fields can also be read by position, see {@link #getColumn} and {@link #getValue},
+ * which the codec and the table writer use so they do not look up labels at all.
+ *
+ * Reaction payloads may be stored compressed, see {@link CompressedPayload}.  They are
+ * inflated when read by label, and kept compressed when read by position or with
+ * {@link #getStored}, and when copied to another record.
+ *
+ * Records are serialized with their labels, since column indexes are only valid while
+ * KNIME runs.
+ */
+public class ResultRecord extends AbstractMap<String, String> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int[] NO_COLUMNS = new int[0];
+	private static final String[] NO_VALUES = new String[0];
+
+	private transient int[] columns;
+	private transient String[] values;
+	private transient int size = 0;
+
+
+	/**
+	 * create an empty record
+	 */
+	public ResultRecord() {
+		columns = NO_COLUMNS;
+		values = NO_VALUES;
+	}
+
+
+	/**
+	 * create an empty record with room for some fields
+	 *
+	 * @param capacity number of fields
+	 */
+	public ResultRecord(final int capacity) {
+		columns = new int[capacity];
+		values = new String[capacity];
+	}
+
+
+	/**
+	 * create a copy of a record
+	 *
+	 * @param record record to copy
+	 */
+	public ResultRecord(final ResultRecord record) {
+		columns = Arrays.copyOf(record.columns, record.size);
+		values = Arrays.copyOf(record.values, record.size);
+		size = record.size;
+	}
+
+
+	/**
+	 * create a record with the fields of a map
+	 *
+	 * @param map fields to copy
+	 */
+	public ResultRecord(final Map<String, String> map) {
+		this(map.size());
+		putAll(map);
+	}
+
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return find(key) >= 0;
+	}
+
+
+	@Override
+	public String get(final Object key) {
+		return CompressedPayload.expand(getStored(key));
+	}
+
+
+	/**
+	 * get the value of a field as it is stored, without inflating a compressed reaction
+	 *
+	 * @param key label of the field
+	 * @return stored value, or null if the record does not have the field
+	 */
+	public String getStored(final Object key) {
+
+		final int i = find(key);
+		return i >= 0 ? values[i] : null;
+	}
+
+
+	@Override
+	public String put(final String key, final String value) {
+
+		final int column = FieldSchema.index(key);
+		final int i = Arrays.binarySearch(columns, 0, size, column);
+
+		if (i >= 0) {
+			final String old = values[i];
+			values[i] = value;
+			return old;
+		}
+
+		insert(-i - 1, column, value);
+		return null;
+	}
+
+
+	@Override
+	public String remove(final Object key) {
+
+		final int i = find(key);
+		if (i < 0) {
+			return null;
+		}
+
+		final String old = values[i];
+		delete(i);
+		return old;
+	}
+
+
+	@Override
+	public void putAll(final Map<? extends String, ? extends String> map) {
+
+		if (!(map instanceof ResultRecord)) {
+			super.putAll(map);
+			return;
+		}
+
+		// copy the stored values, so compressed reactions stay compressed
+		final ResultRecord record = (ResultRecord) map;
+		for (int i = 0; i < record.size; i++) {
+			putColumn(record.columns[i], record.values[i]);
+		}
+	}
+
+
+	@Override
+	public void clear() {
+
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+
+
+	/**
+	 * get the column index of a field by position
+	 *
+	 * @param i position of the field, 0 to size - 1
+	 * @return column index in the {@link FieldSchema}
+	 */
+	public int getColumn(final int i) {
+		return columns[i];
+	}
+
+
+	/**
+	 * get the value of a field by position, as it is stored
+	 *
+	 * @param i position of the field, 0 to size - 1
+	 * @return stored value of the field
+	 */
+	public String getValue(final int i) {
+		return values[i];
+	}
+
+
+	/**
+	 * estimate the memory the record takes, e.g. to bound a cache of records
+	 *
+	 * @return estimated size in bytes
+	 */
+	public int estimateBytes() {
+
+		int bytes = 64 + 12 * columns.length;
+		for (int i = 0; i < size; i++) {
+			bytes += values[i] != null ? 40 + 2 * values[i].length() : 0;
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * add a field by column index, e.g. when decoding a record.  Fields added in column
+	 * order are appended without searching.
+	 *
+	 * @param column column index in the {@link FieldSchema}
+	 * @param value value of the field
+	 */
+	public void putColumn(final int column, final String value) {
+
+		if (size == 0 || columns[size - 1] < column) {
+			insert(size, column, value);
+			return;
+		}
+
+		final int i = Arrays.binarySearch(columns, 0, size, column);
+		if (i >= 0) {
+			values[i] = value;
+		} else {
+			insert(-i - 1, column, value);
+		}
+	}
+
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+
+		return new AbstractSet<Map.Entry<String, String>>() {
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+
+				return new Iterator<Map.Entry<String, String>>() {
+
+					private int next = 0;
+					private boolean removable = false;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+
+						if (next >= size) {
+							throw new NoSuchElementException();
+						}
+						removable = true;
+						return new Field(next++);
+					}
+
+					@Override
+					public void remove() {
+
+						if (!removable) {
+							throw new IllegalStateException();
+						}
+						delete(--next);
+						removable = false;
+					}
+				};
+			}
+		};
+	}
+
+
+	/**
+	 * a field of the record, for the entry set
+	 */
+	private class Field implements Map.Entry<String, String> {
+
+		private final int column;
+
+		Field(final int i) {
+			column = columns[i];
+		}
+
+		@Override
+		public String getKey() {
+			return FieldSchema.label(column);
+		}
+
+		@Override
+		public String getValue() {
+
+			final int i = Arrays.binarySearch(columns, 0, size, column);
+			return i >= 0 ? CompressedPayload.expand(values[i]) : null;
+		}
+
+		@Override
+		public String setValue(final String value) {
+
+			final int i = Arrays.binarySearch(columns, 0, size, column);
+			if (i < 0) {
+				throw new IllegalStateException("field was removed");
+			}
+			final String old = values[i];
+			values[i] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			final String value = getValue();
+			return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+
+			final String value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+
+	/**
+	 * find the position of a field
+	 *
+	 * @param key label of the field
+	 * @return position, or a negative number if the record does not have the field
+	 */
+	private int find(final Object key) {
+
+		if (!(key instanceof String)) {
+			return -1;
+		}
+
+		final int column = FieldSchema.find((String) key);
+		if (column < 0) {
+			return -1;
+		}
+		return Arrays.binarySearch(columns, 0, size, column);
+	}
+
+
+	/**
+	 * insert a field at a position
+	 *
+	 * @param i position
+	 * @param column column index
+	 * @param value value of the field
+	 */
+	private void insert(final int i, final int column, final String value) {
+
+		if (size == columns.length) {
+			final int capacity = Math.max(8, 2 * size);
+			columns = Arrays.copyOf(columns, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		System.arraycopy(columns, i, columns, i + 1, size - i);
+		System.arraycopy(values, i, values, i + 1, size - i);
+		columns[i] = column;
+		values[i] = value;
+		size++;
+	}
+
+
+	/**
+	 * delete the field at a position
+	 *
+	 * @param i position
+	 */
+	private void delete(final int i) {
+
+		System.arraycopy(columns, i + 1, columns, i, size - i - 1);
+		System.arraycopy(values, i + 1, values, i, size - i - 1);
+		values[--size] = null;
+	}
+
+
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeObject(FieldSchema.label(columns[i]));
+			out.writeObject(values[i]);
+		}
+	}
+
+
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+		in.defaultReadObject();
+		final int n = in.readInt();
+		columns = new int[n];
+		values = new String[n];
+		size = 0;
+		for (int i = 0; i < n; i++) {
+			put((String) in.readObject(), (String) in.readObject());
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.elsevier.reaxys.memoryBackedList;
+import java.io.IOException;
+
+/**
+ * turns the objects of a {@link MemoryBackedList} into the bytes written to its
+ * {@link DataStore}, and back.
+ * 
+ * @param <E> type of the objects
+ */
+public interface Codec<E> {
+	
+	/**
+	 * encode an object
+	 * 
+	 * @param object object to encode
+	 * @return bytes of the object
+	 * @throws IOException on error
+	 */
+	byte[] encode(E object) throws IOException;
+	
+	/**
+	 * decode an object
+	 * 
+	 * @param bytes bytes from {@link #encode}
+	 * @return the object
+	 * @throws IOException on error
+	 */
+	E decode(byte[] bytes) throws IOException;
+}
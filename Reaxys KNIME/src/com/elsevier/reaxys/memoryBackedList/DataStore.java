@@ -2,21 +2,54 @@ package com.elsevier.reaxys.memoryBackedList;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * class implements a data storage mechanism for objects written to a memory mapped file for high
  * performance reading/writing.
- * 
+ *
+ * Most stores are small, so a store starts in memory, in an array that grows up to HEAP_LIMIT.
+ * Only a store that grows beyond it creates its file, which is mapped in segments after the
+ * array, which double in size up to MAX_SEGMENT as the store grows.  Entries are only appended; an entry may span segments.  Reading an
+ * entry copies it from the mapped segments without a system call, so reads in random order are
+ * about as fast as reading memory.  Reads do not lock, and may run while another thread writes,
+ * but there must only be one writer.
+ *
  * @author clarkm
  *
  */
 public class DataStore {
-	
-	private ArrayList<indexEntry> index = new ArrayList<indexEntry>();
+
+	/* size of the array a store starts in, and of the largest array before a file is used */
+	static final int HEAP_START = 4096;
+	static final int HEAP_LIMIT = 1 << 20;
+
+	/* size of the first mapped segment, and the largest segment */
+	static final int FIRST_SEGMENT = 1 << 20;
+	static final int MAX_SEGMENT = 1 << 26;
+
+	/* index of the entries: position in the file and size, of the first count entries */
+	private long[] positions = new long[64];
+	private int[] sizes = new int[64];
+	private volatile int count = 0;
+
+	/* segments, the array and then the mapped ones, and the position where each starts */
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+	private volatile long[] segmentStarts = new long[0];
+
+	/* end of the segments, and end of the data written */
+	private long mapped = 0;
+	private long end = 0;
+
+	/* the data while the store is in memory */
+	private byte[] heap = null;
+
 	private RandomAccessFile randomAccessFile = null;
 	private File backingFile = null;
-	
+
 	void init() {
 		try {
 			backingFile = File.createTempFile("DataStore", "ser");
@@ -25,98 +58,226 @@ public class DataStore {
 			System.err.println("error creating data store: " + e);
 		}
 	}
-	
-	
+
+
 	/**
-	 * close the file, and try to delete after a delay for the gc to 
-	 * take place.
-	 * 
+	 * close the file, and try to delete it.  The segments stay mapped until they are
+	 * garbage collected, so where the file can't be deleted while it is mapped it is
+	 * deleted when the JVM exits.
+	 *
 	 * @throws IOException
 	 */
 	void close() throws IOException {
-		
+
+		segments = new ByteBuffer[0];
+		segmentStarts = new long[0];
+		heap = null;
+		count = 0;
+		mapped = 0;
+		end = 0;
+
 		if (randomAccessFile != null) randomAccessFile.close();
-		if (index != null) index.clear();
-		if (backingFile != null && backingFile.exists()) backingFile.delete();
+		randomAccessFile = null;
+
+		if (backingFile != null && backingFile.exists() && !backingFile.delete()) {
+			backingFile.deleteOnExit();
+		}
+		backingFile = null;
 	}
-	
-	
+
+
 	/**
 	 * return number of entries in this file
-	 * 
+	 *
 	 * @return number of entries.
 	 */
 	int size() {
-		return index.size();
+		return count;
 	}
-	
-	
+
+
 	void delete(final int entry) {
-		index.remove(entry);
+
+		final int n = count;
+		if (entry < 0 || entry >= n) {
+			throw new IndexOutOfBoundsException("entry " + entry + " of " + n);
+		}
+
+		System.arraycopy(positions, entry + 1, positions, entry, n - entry - 1);
+		System.arraycopy(sizes, entry + 1, sizes, entry, n - entry - 1);
+		count = n - 1;
 	}
-	
+
 	/**
 	 * read an entry from the file and return the bytes
 	 * @param entry serial number of object to get
 	 * @return the object, serialized in bytes
-	 * 
+	 *
 	 * @throws IOException
 	 */
 	final byte[] read(int entry) throws IOException {
-		
-		final long position = index.get(entry).position;
-		final long size = index.get(entry).size;
-		final byte[] objbytes = new byte[(int) size];
-
-		randomAccessFile.seek(position);
-		randomAccessFile.readFully(objbytes);
-        
+
+		if (entry < 0 || entry >= count) {
+			throw new IndexOutOfBoundsException("entry " + entry + " of " + count);
+		}
+
+		final long position = positions[entry];
+		final byte[] objbytes = new byte[sizes[entry]];
+
+		final ByteBuffer[] segs = segments;
+		final long[] starts = segmentStarts;
+
+		int seg = segmentOf(starts, position);
+		int offset = (int) (position - starts[seg]);
+		int done = 0;
+
+		// copy from each segment the entry is in
+		while (done < objbytes.length) {
+
+			final ByteBuffer buffer = segs[seg].duplicate();
+			final int n = Math.min(objbytes.length - done, buffer.capacity() - offset);
+
+			buffer.position(offset);
+			buffer.get(objbytes, done, n);
+
+			done += n;
+			seg++;
+			offset = 0;
+		}
+
 		return objbytes;
 	}
-	
+
 	/**
 	 * write a serialized object to the memory mapped file as an array of bytes
 	 * @param bytes bytes to write
 	 * @throws IOException
 	 */
 	final void write(final byte[] bytes) throws IOException {
-		
-		// lazy initialize
-		if (randomAccessFile == null) {
+
+		// small stores are kept in memory
+		if (randomAccessFile == null && end + bytes.length <= HEAP_LIMIT) {
+			growHeap(end + bytes.length);
+		}
+
+		// a store that outgrows the array moves on to the file, after the array
+		if (randomAccessFile == null && end + bytes.length > mapped) {
 			init();
+			end = mapped;
 		}
-		
-		long position = 0;
-		long size = bytes.length;
-			
-		if (!index.isEmpty()) {
-			final indexEntry lastWritten = index.get(index.size() - 1);
-			position = lastWritten.position + lastWritten.size + 1;
+
+		final long position = end;
+
+		// map more of the file if the entry does not fit
+		while (mapped < position + bytes.length) {
+			addSegment();
+		}
+
+		final ByteBuffer[] segs = segments;
+		final long[] starts = segmentStarts;
+
+		int seg = segmentOf(starts, position);
+		int offset = (int) (position - starts[seg]);
+		int done = 0;
+
+		// copy into each segment the entry is in
+		while (done < bytes.length) {
+
+			final ByteBuffer buffer = segs[seg].duplicate();
+			final int n = Math.min(bytes.length - done, buffer.capacity() - offset);
+
+			buffer.position(offset);
+			buffer.put(bytes, done, n);
+
+			done += n;
+			seg++;
+			offset = 0;
+		}
+
+		end = position + bytes.length;
+
+		final int n = count;
+		if (n == positions.length) {
+			positions = Arrays.copyOf(positions, 2 * n);
+			sizes = Arrays.copyOf(sizes, 2 * n);
+		}
+		positions[n] = position;
+		sizes[n] = bytes.length;
+
+		// publish the entry to readers
+		count = n + 1;
+	}
+
+
+	/**
+	 * make the array of a store in memory large enough.  A larger array replaces the segment
+	 * of the old one, which readers may still be copying from.
+	 *
+	 * @param size bytes needed
+	 */
+	private void growHeap(final long size) {
+
+		if (heap != null && heap.length >= size) {
+			return;
 		}
-		
+
+		int length = heap == null ? HEAP_START : heap.length;
+		while (length < size) {
+			length *= 2;
+		}
+
+		heap = heap == null ? new byte[Math.min(length, HEAP_LIMIT)] : Arrays.copyOf(heap, Math.min(length, HEAP_LIMIT));
+		segmentStarts = new long[] {0};
+		segments = new ByteBuffer[] {ByteBuffer.wrap(heap)};
+		mapped = heap.length;
+	}
+
+
+	/**
+	 * map the next segment of the file.  Each segment is twice as large as the one before,
+	 * up to MAX_SEGMENT.
+	 *
+	 * @throws IOException if there is no file, or not enough disk space for the segment
+	 */
+	private void addSegment() throws IOException {
+
+		if (randomAccessFile == null) {
+			throw new IOException("data store could not be created");
+		}
+
+		final ByteBuffer[] segs = segments;
+		final int size = segs.length == 0 ? FIRST_SEGMENT
+				: Math.max(FIRST_SEGMENT, Math.min(MAX_SEGMENT, 2 * segs[segs.length - 1].capacity()));
+
 		// check file space left.
-		if ( size > backingFile.getUsableSpace()) {
+		if (size > backingFile.getUsableSpace()) {
 			throw new IOException("file system out of space for backing file");
 		}
-		
-		randomAccessFile.seek(position);
-		randomAccessFile.write(bytes);
-		
-        index.add(new indexEntry(position, size));
+
+		final MappedByteBuffer segment = randomAccessFile.getChannel()
+				.map(FileChannel.MapMode.READ_WRITE, mapped, size);
+
+		final long[] starts = Arrays.copyOf(segmentStarts, segs.length + 1);
+		starts[segs.length] = mapped;
+		final ByteBuffer[] newSegs = Arrays.copyOf(segs, segs.length + 1);
+		newSegs[segs.length] = segment;
+
+		segmentStarts = starts;
+		segments = newSegs;
+		mapped += size;
 	}
-	
+
+
 	/**
-	 * index for the memory mapped file with starting positions and sizes of the objects in the file
-	 * @author clarkm
+	 * find the segment that holds a position in the file
 	 *
+	 * @param starts positions where the segments start
+	 * @param position position in the file
+	 * @return index of the segment
 	 */
-	private class indexEntry {
-		long position;
-		long size;
-		
-		indexEntry(long position, long size) {
-			this.position = position;
-			this.size = size;
-		}
+	private static int segmentOf(final long[] starts, final long position) {
+
+		final int found = Arrays.binarySearch(starts, position);
+		return found >= 0 ? found : -found - 2;
 	}
-}
\ No newline at end of file
+}
@@ -1,11 +1,5 @@
 package com.elsevier.reaxys.memoryBackedList;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Iterator;
@@ -23,11 +17,29 @@ import java.util.ListIterator;
 public class MemoryBackedList<E extends Serializable> implements List<E>, Cloneable {
 
 	private DataStore storage = new DataStore();
+	private final Codec<E> codec;
 	/**
 	 * 
 	 */
 	//private static final long serialVersionUID = -1519085539375240223L;
 	
+	/**
+	 * create a list that stores its objects with java serialization
+	 */
+	public MemoryBackedList() {
+		this(new SerializationCodec<E>());
+	}
+	
+	/**
+	 * create a list that stores its objects with a codec, e.g. a {@link RecordCodec} for
+	 * result records
+	 * 
+	 * @param codec codec for the objects
+	 */
+	public MemoryBackedList(final Codec<E> codec) {
+		this.codec = codec;
+	}
+	
 	/**
 	 * close the storage file and clear the array.
 	 */
@@ -78,24 +90,12 @@ public class MemoryBackedList<E extends Serializable> implements List<E>, Clonea
 	
 	public boolean add(E object) {
 
-		ByteArrayOutputStream bos = null;
-		ObjectOutput out = null;
-		
 		try {
-			bos = new ByteArrayOutputStream();
-			out = new ObjectOutputStream(bos);
-			out.writeObject(object);
-			out.flush();
-			storage.write(bos.toByteArray());
+			storage.write(codec.encode(object));
 
 		} catch (Exception e) {
 			System.err.println("error adding object to MemoryBackedArrayList: " + e);
 			return false;
-		} finally {
-			try {
-				out.close();
-				bos.close();
-			} catch(Exception e2) {}
 		}
 		return true;
 	}
@@ -111,31 +111,14 @@ public class MemoryBackedList<E extends Serializable> implements List<E>, Clonea
 	}
 	
 	
-	@SuppressWarnings("unchecked")
 	public E get(int index) {
 		
-		E result = null;
-		ObjectInput in = null;
-		
 		try {
-			final byte[] objbytes = storage.read(index);
-			final ByteArrayInputStream bis = new ByteArrayInputStream(objbytes);
-			in = new ObjectInputStream(bis);
-			result = (E) in.readObject();
+			return codec.decode(storage.read(index));
 		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-			return null;
-		} finally {
-			try {
-				in.close();
-			} catch (Exception e2) {}
-
 		}
-		
-		return result;
 	}
 	
 	
@@ -261,7 +244,7 @@ public class MemoryBackedList<E extends Serializable> implements List<E>, Clonea
 	@Override
 	public List<E> subList(int fromIndex, int toIndex) {
 		
-		List<E> result = new MemoryBackedList<E>();
+		List<E> result = new MemoryBackedList<E>(codec);
 		
 		for (int i = fromIndex; i < toIndex && i < size(); i++) {
 			result.add(get(i));
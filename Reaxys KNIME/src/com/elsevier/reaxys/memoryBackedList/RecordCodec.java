@@ -0,0 +1,155 @@
+package com.elsevier.reaxys.memoryBackedList;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.elsevier.reaxys.FieldSchema;
+import com.elsevier.reaxys.ResultRecord;
+
+/**
+ * compact codec for result records.  Java serialization writes the class descriptors and
+ * every label, like "Reaxys Registry Number (IDE.XRN)", again for every record; this codec
+ * writes each field as the column index of its label in the {@link FieldSchema} and the
+ * UTF-8 bytes of its value.
+ *
+ * A record is written as the number of fields, then for each field the column index and
+ * the length of the value plus one, 0 for a null value, followed by the value.  Numbers are
+ * written 7 bits to a byte.  Column indexes are only valid while KNIME runs, so the bytes
+ * can't be kept between sessions.
+ */
+public class RecordCodec implements Codec<ResultRecord> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	@Override
+	public byte[] encode(final ResultRecord record) throws IOException {
+
+		final int size = record.size();
+		final Buffer out = new Buffer(32 * size + 8);
+		out.writeNumber(size);
+
+		for (int i = 0; i < size; i++) {
+
+			out.writeNumber(record.getColumn(i));
+
+			final String value = record.getValue(i);
+			if (value == null) {
+				out.writeNumber(0);
+			} else {
+				final byte[] bytes = value.getBytes(UTF8);
+				out.writeNumber(bytes.length + 1);
+				out.write(bytes);
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+
+	@Override
+	public ResultRecord decode(final byte[] bytes) throws IOException {
+
+		final int[] pos = {0};
+		final int size = readNumber(bytes, pos);
+		final ResultRecord record = new ResultRecord(size);
+
+		for (int i = 0; i < size; i++) {
+
+			final int column = readNumber(bytes, pos);
+			final int length = readNumber(bytes, pos) - 1;
+
+			if (column >= FieldSchema.size()) {
+				throw new IOException("unknown field " + column);
+			}
+
+			if (length < 0) {
+				record.putColumn(column, null);
+			} else {
+				if (pos[0] + length > bytes.length) {
+					throw new IOException("truncated record");
+				}
+				record.putColumn(column, new String(bytes, pos[0], length, UTF8));
+				pos[0] += length;
+			}
+		}
+
+		return record;
+	}
+
+
+	/**
+	 * read a number written 7 bits to a byte
+	 *
+	 * @param bytes encoded record
+	 * @param pos position to read at, advanced past the number
+	 * @return the number
+	 * @throws IOException if the record ends in the number
+	 */
+	private static int readNumber(final byte[] bytes, final int[] pos) throws IOException {
+
+		int value = 0;
+		int shift = 0;
+
+		while (true) {
+
+			if (pos[0] >= bytes.length || shift > 28) {
+				throw new IOException("truncated record");
+			}
+
+			final int b = bytes[pos[0]++];
+			value |= (b & 0x7f) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+
+
+	/**
+	 * growable byte array for encoding a record
+	 */
+	private static class Buffer {
+
+		private byte[] bytes;
+		private int size = 0;
+
+		Buffer(final int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void writeNumber(int value) {
+
+			ensure(5);
+			while ((value & ~0x7f) != 0) {
+				bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		void write(final byte[] b) {
+
+			ensure(b.length);
+			System.arraycopy(b, 0, bytes, size, b.length);
+			size += b.length;
+		}
+
+		byte[] toByteArray() {
+
+			final byte[] result = new byte[size];
+			System.arraycopy(bytes, 0, result, 0, size);
+			return result;
+		}
+
+		private void ensure(final int more) {
+
+			if (size + more > bytes.length) {
+				final byte[] larger = new byte[Math.max(2 * bytes.length, size + more)];
+				System.arraycopy(bytes, 0, larger, 0, size);
+				bytes = larger;
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.elsevier.reaxys.memoryBackedList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * codec that uses java serialization, for objects of any serializable type.
+ * 
+ * @param <E> type of the objects
+ */
+public class SerializationCodec<E extends Serializable> implements Codec<E> {
+
+	@Override
+	public byte[] encode(final E object) throws IOException {
+		
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final ObjectOutput out = new ObjectOutputStream(bos);
+		
+		try {
+			out.writeObject(object);
+			out.flush();
+			return bos.toByteArray();
+		} finally {
+			out.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public E decode(final byte[] bytes) throws IOException {
+		
+		final ObjectInput in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		
+		try {
+			return (E) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+	}
+}
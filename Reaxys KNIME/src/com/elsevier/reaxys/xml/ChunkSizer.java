@@ -0,0 +1,209 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.knime.core.node.NodeLogger;
+
+import com.elsevier.reaxys.ReaxysDataTypes;
+
+/**
+ * chooses the number of records and facts requested in each retrieve request.  Sparse data,
+ * like melting points, gives small responses so many records can be requested at once; heavy
+ * data, like reaction details, gives large and slow responses that should be split up so they
+ * do not time out.
+ *
+ * The sizes are learned separately for each data type from the bytes and time of the
+ * responses, aiming for responses of about TARGET_BYTES that take about TARGET_MS.  They
+ * start at the sizes that were used before they were adaptive.
+ */
+class ChunkSizer {
+
+	/* limits and starting value of the records in a range */
+	static final int MIN_RECORDS = 5;
+	static final int MAX_RECORDS = 1000;
+	static final int START_RECORDS = 50;
+
+	/* limits and starting value of the facts per record in a request */
+	static final int MIN_FACTS = 25;
+	static final int MAX_FACTS = 500;
+	static final int START_FACTS = 100;
+
+	/* target size and time of a response */
+	static final long TARGET_BYTES = 2 * 1024 * 1024;
+	static final long TARGET_MS = 5 * 1000;
+
+	/* weight of the newest response in the averages */
+	static final double WEIGHT = 0.3;
+
+	/* sizes are learned per data type, and shared by all queries */
+	private static final ConcurrentMap<String, ChunkSizer> sizers = new ConcurrentHashMap<String, ChunkSizer>();
+
+	private final String name;
+	private int records = START_RECORDS;
+	private int facts = START_FACTS;
+	private double bytesPerRecord = 0;  // averages, 0 until the first response
+	private double msPerRecord = 0;
+
+	// the logger instance
+	private static NodeLogger logger = null;
+
+
+	/**
+	 * get the sizer for a data type
+	 *
+	 * @param dataType data type being retrieved
+	 * @return the sizer for the data type
+	 */
+	static ChunkSizer forType(final ReaxysDataTypes dataType) {
+
+		final String key = dataType.getDatabase() + "/" + dataType.getCode();
+		ChunkSizer sizer = sizers.get(key);
+
+		if (sizer == null) {
+			sizers.putIfAbsent(key, new ChunkSizer(key));
+			sizer = sizers.get(key);
+		}
+		return sizer;
+	}
+
+
+	/**
+	 * create a sizer with the starting sizes
+	 *
+	 * @param name data type, for logging
+	 */
+	ChunkSizer(final String name) {
+
+		this.name = name;
+
+		try {
+			logger = NodeLogger.getLogger(ChunkSizer.class);
+		} catch (Throwable er) {
+			// We are not running in KNIME
+		}
+	}
+
+
+	/**
+	 * get the number of records to request in the next range
+	 *
+	 * @return number of records
+	 */
+	synchronized int getRecords() {
+		return records;
+	}
+
+
+	/**
+	 * get the number of facts per record to request in the next chunk
+	 *
+	 * @return number of facts
+	 */
+	synchronized int getFacts() {
+		return facts;
+	}
+
+
+	/**
+	 * learn from a response.
+	 *
+	 * @param rangeRecords number of records in the range that was requested
+	 * @param bytes size of the response in bytes, or 0 if not known
+	 * @param ms time of the request in milliseconds
+	 */
+	synchronized void observe(final int rangeRecords, final long bytes, final long ms) {
+
+		final int n = Math.max(1, rangeRecords);
+
+		bytesPerRecord = average(bytesPerRecord, (double) bytes / n);
+		msPerRecord = average(msPerRecord, (double) Math.max(1, ms) / n);
+
+		// records that fit in the target size and time
+		double target = TARGET_MS / msPerRecord;
+		if (bytesPerRecord > 0) {
+			target = Math.min(target, TARGET_BYTES / bytesPerRecord);
+		}
+
+		// grow slowly, shrink right away
+		final int next = (int) Math.min(target, 2.0 * records);
+		setRecords(next);
+
+		// a single record that is too large needs fewer facts per request
+		if (bytes > 2 * TARGET_BYTES || ms > 2 * TARGET_MS) {
+			if (records == MIN_RECORDS) {
+				setFacts(facts / 2);
+			}
+		}
+	}
+
+
+	/**
+	 * learn that a range needed more than one chunk of facts, so more facts per request would
+	 * save round trips.
+	 */
+	synchronized void moreFacts() {
+
+		// only if the responses are not already at the target size
+		if (bytesPerRecord * records < TARGET_BYTES / 2 && msPerRecord * records < TARGET_MS / 2) {
+			setFacts(facts * 2);
+		}
+	}
+
+
+	/**
+	 * learn that a request failed, possibly because it timed out.  Both sizes are halved.
+	 */
+	synchronized void failed() {
+		setRecords(records / 2);
+		setFacts(facts / 2);
+	}
+
+
+	/**
+	 * set the records in a range, within the limits
+	 *
+	 * @param value new number of records
+	 */
+	private void setRecords(final int value) {
+
+		final int old = records;
+		records = Math.max(MIN_RECORDS, Math.min(MAX_RECORDS, value));
+
+		if (records != old && logger != null) {
+			logger.debug(name + ": " + records + " records per request");
+		}
+	}
+
+
+	/**
+	 * set the facts per record in a request, within the limits
+	 *
+	 * @param value new number of facts
+	 */
+	private void setFacts(final int value) {
+
+		final int old = facts;
+		facts = Math.max(MIN_FACTS, Math.min(MAX_FACTS, value));
+
+		if (facts != old && logger != null) {
+			logger.debug(name + ": " + facts + " facts per request");
+		}
+	}
+
+
+	/**
+	 * update a moving average
+	 *
+	 * @param average current average, 0 if there is none yet
+	 * @param value new value
+	 * @return new average
+	 */
+	private static double average(final double average, final double value) {
+
+		if (average == 0) {
+			return value;
+		}
+		return WEIGHT * value + (1 - WEIGHT) * average;
+	}
+}
@@ -0,0 +1,130 @@
+package com.elsevier.reaxys.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.knime.core.node.NodeLogger;
+
+/**
+ * reaction payloads (RY.STR, RX.RXNFILE) are delivered as base64 strings of deflated rxn
+ * files, which inflate to about ten times their size.  Instead of inflating them when they
+ * are retrieved, they can be kept as they were delivered, marked so they are recognized,
+ * and inflated only when they are read; see {@link #expand}.  The compressed value is kept
+ * through the result lists, the spill files, the response cache and the molecule cache.
+ *
+ * A compressed value is MARK, the reaction id that goes in the header of the rxn file, MARK,
+ * then the base64 string.  Neither base64 nor Reaxys text contains MARK.
+ */
+public final class CompressedPayload {
+
+	/* starts a compressed value, and ends its reaction id */
+	static final char MARK = '\u0000';
+
+	// the logger instance
+	private static NodeLogger logger = null;
+
+	static {
+		try {
+			logger = NodeLogger.getLogger(CompressedPayload.class);
+		} catch (Throwable er) {
+			// We are not running in KNIME
+		}
+	}
+
+
+	private CompressedPayload() {
+	}
+
+
+	/**
+	 * mark a compressed reaction so it is inflated when it is read
+	 *
+	 * @param compressed base64 string of the deflated rxn file, as delivered
+	 * @param id reaction id for the header of the rxn file, or null
+	 * @return the compressed value
+	 */
+	public static String wrap(final String compressed, final String id) {
+		return MARK + (id != null ? id : "") + MARK + compressed;
+	}
+
+
+	/**
+	 * test if a value is a compressed reaction
+	 *
+	 * @param value field value, or null
+	 * @return true if it must be expanded before it is used
+	 */
+	public static boolean isCompressed(final String value) {
+		return value != null && value.length() > 0 && value.charAt(0) == MARK;
+	}
+
+
+	/**
+	 * get the value to use for a field value: compressed reactions are inflated, other
+	 * values are returned as they are.
+	 *
+	 * @param value field value, or null
+	 * @return the value to use
+	 */
+	public static String expand(final String value) {
+
+		if (!isCompressed(value)) {
+			return value;
+		}
+
+		final int end = value.indexOf(MARK, 1);
+		if (end < 0) {
+			return value;
+		}
+
+		final String id = end > 1 ? value.substring(1, end) : null;
+		return reaction(inflate(value.substring(end + 1)), id);
+	}
+
+
+	/**
+	 * inflate a compressed string.  Particularly Rxn files that are delivered as compressed strings
+	 *
+	 * @param compressed string with compressed data
+	 * @return inflated string, or original string if it was not compressed
+	 */
+	static String inflate(final String compressed) {
+
+		try {
+			final byte[] un64 = DatatypeConverter.parseBase64Binary(compressed);
+			final ByteArrayOutputStream inflatedStream = new ByteArrayOutputStream(8 * un64.length);
+			final Inflater decompresser = new Inflater(false);
+			final InflaterOutputStream inflaterOutputStream = new InflaterOutputStream(inflatedStream, decompresser);
+			inflaterOutputStream.write(un64);
+			inflaterOutputStream.close();
+			decompresser.end();
+			return new String(inflatedStream.toByteArray(), "UTF-8");
+
+		} catch(IOException e) {
+			if (logger != null) logger.info("decompression error: " + e);
+		}
+		// maybe this failed because it wan't really compressed, so return original string
+		return compressed;
+	}
+
+
+	/**
+	 * put the reaction id in the header of an rxn file, if the header has no name
+	 *
+	 * @param rdfile inflated rxn file
+	 * @param id reaction id, or null
+	 * @return the rxn file
+	 */
+	static String reaction(final String rdfile, final String id) {
+
+		// (?s) allows matching with newlines in the string.
+		if (id != null && rdfile.matches("(?s)^[$]RXN[^\n]*\n\n.*")) {
+			return rdfile.replaceFirst("\n", "\n" + id);
+		}
+		return rdfile;
+	}
+}
@@ -0,0 +1,244 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.elsevier.reaxys.ReaxysFieldTypes;
+import com.elsevier.reaxys.ResultRecord;
+import com.elsevier.reaxys.xml.ReaxysDocument.RetrieveResults;
+
+/**
+ * plans the requests for the facts of a range of records.  The first request asks for the
+ * first page of facts of all records of the range, and the response tells how many facts
+ * were returned for each record, see {@link RetrieveResults.Page}.  Only a record that
+ * returned a full page can have more facts, so the next page is only requested for the
+ * records from the first to the last one that did, and nothing more is requested when none
+ * did.  Unlike probing until a response comes back empty, a request only returns nothing
+ * when a record had exactly a full page of facts.
+ *
+ * Reaction details are counted by the server: the RX.NVAR of the parent reaction is the
+ * number of details.  For those records all pages are planned from the count at once, and
+ * are sent together.  A count is not trusted further than the facts returned; a record that
+ * returns more facts than its count is asked for another page.
+ *
+ * The parent data of a record, like the IDE of a substance, is the same for every page of
+ * its facts.  When parents are joined, it is kept from the first page, the later pages are
+ * requested without it, and it is copied into their rows here; see {@link #join}.
+ */
+class FactPlan {
+
+	/* fail safe, no facts are requested from this one on */
+	static final int MAX_START = 10000;
+
+	private final ReaxysAPI.Range range;
+	private final int pageFacts;
+
+	/* label of the parent field with the number of facts of a record, or null */
+	private final String countLabel;
+
+	/* for each record of the range, facts requested and returned so far, and the count */
+	private final int[] requested;
+	private final int[] returned;
+	private final int[] total;
+
+	/* parent data of each record from the first page, or null if parents are retrieved again */
+	private final ResultRecord[] parents;
+
+
+	/**
+	 * create the plan for a range, whose first page of facts is requested
+	 *
+	 * @param fact data type code of the facts
+	 * @param range the range, with the number of facts per request
+	 * @param joinParents true to request later pages without the parent data
+	 */
+	FactPlan(final String fact, final ReaxysAPI.Range range, final boolean joinParents) {
+
+		this.range = range;
+		pageFacts = range.facts;
+		countLabel = "RXD".equals(fact) ? ReaxysFieldTypes.getLabel("RX.NVAR") : null;
+
+		requested = new int[range.size()];
+		returned = new int[range.size()];
+		total = new int[range.size()];
+		Arrays.fill(requested, range.start + pageFacts - 1);
+		Arrays.fill(total, -1);
+		parents = joinParents ? new ResultRecord[range.size()] : null;
+	}
+
+
+	/**
+	 * learn from the response to a request of the plan
+	 *
+	 * @param request the request
+	 * @param page records of the response, or null if the request failed
+	 */
+	void learn(final ReaxysAPI.Range request, final List<ResultRecord> page) {
+
+		if (page == null) {
+			return;
+		}
+
+		final int offset = request.first - range.first;
+
+		// without counts per record, any record may have filled the page if the response is full
+		if (!(page instanceof RetrieveResults.Page) || ((RetrieveResults.Page) page).getRecords() != request.size()) {
+
+			if (page.size() >= request.facts) {
+				for (int i = 0; i < request.size(); i++) {
+					returned[offset + i] += request.facts;
+				}
+			}
+			return;
+		}
+
+		final RetrieveResults.Page counted = (RetrieveResults.Page) page;
+
+		for (int i = 0; i < request.size(); i++) {
+
+			returned[offset + i] += counted.getFacts(i);
+
+			// the parent fields, with the count, come with the first page
+			if (request.start == 1 && counted.getParent(i) != null) {
+				if (countLabel != null) {
+					total[offset + i] = count(counted.getParent(i).get(countLabel));
+				}
+				if (parents != null) {
+					parents[offset + i] = counted.getParent(i);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * copy the parent data into the rows of a page that was requested without it
+	 *
+	 * @param request the request
+	 * @param page records of the response; the rows are replaced
+	 * @return false if the rows can't be matched to their records, so the page has to be
+	 * requested again with the parents
+	 */
+	boolean join(final ReaxysAPI.Range request, final List<ResultRecord> page) {
+
+		if (request.parents || page == null) {
+			return true;
+		}
+
+		if (!(page instanceof RetrieveResults.Page) || ((RetrieveResults.Page) page).getRecords() != request.size()) {
+			return page.isEmpty();
+		}
+
+		final RetrieveResults.Page counted = (RetrieveResults.Page) page;
+		final int offset = request.first - range.first;
+		int row = 0;
+
+		for (int i = 0; i < request.size(); i++) {
+
+			final ResultRecord parent = parents[offset + i];
+
+			for (int end = row + counted.getRows(i); row < end; row++) {
+				final ResultRecord joined = new ResultRecord(parent);
+				joined.putAll(page.get(row));
+				page.set(row, joined);
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * plan the next requests: the next page of each record that filled all its pages, and
+	 * the remaining pages of the records whose count is known.
+	 *
+	 * @return requests, ordered by first fact and then by record; empty when all facts
+	 * were requested
+	 */
+	List<ReaxysAPI.Range> next() {
+
+		final int size = requested.length;
+		final int[] upTo = new int[size];
+		int maxEnd = 0;
+		int minStart = Integer.MAX_VALUE;
+
+		for (int i = 0; i < size; i++) {
+
+			int end = requested[i];
+
+			// a full record may have more facts, unless it returned exactly its count
+			if (returned[i] >= requested[i] && returned[i] != total[i]) {
+				end += pageFacts;
+			}
+			if (total[i] > end) {
+				end += (total[i] - end + pageFacts - 1) / pageFacts * pageFacts;
+			}
+
+			upTo[i] = Math.min(end, MAX_START - 1);
+			if (upTo[i] > requested[i]) {
+				maxEnd = Math.max(maxEnd, upTo[i]);
+				minStart = Math.min(minStart, requested[i] + 1);
+			}
+		}
+
+		final List<ReaxysAPI.Range> requests = new ArrayList<ReaxysAPI.Range>();
+
+		for (int start = minStart; start <= maxEnd; start += pageFacts) {
+
+			// one request from the first to the last record that needs this page.  Records in
+			// between that have no more facts return nothing, but a record that already
+			// requested the page would return its facts twice, so the request stops there.
+			int first = -1;
+			int last = -1;
+
+			for (int i = 0; i <= size; i++) {
+
+				if (i == size || requested[i] >= start) {
+					if (first >= 0) {
+						requests.add(new ReaxysAPI.Range(range.first + first, range.first + last, pageFacts, start,
+								!hasParents(first, last)));
+					}
+					first = -1;
+				} else if (start <= upTo[i]) {
+					if (first < 0) {
+						first = i;
+					}
+					last = i;
+				}
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			requested[i] = Math.max(requested[i], upTo[i]);
+		}
+
+		return requests;
+	}
+
+
+	/**
+	 * @return true if the parents of all records from first to last are kept
+	 */
+	private boolean hasParents(final int first, final int last) {
+
+		if (parents == null) {
+			return false;
+		}
+		for (int i = first; i <= last; i++) {
+			if (parents[i] == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static int count(final String value) {
+
+		try {
+			return value == null ? -1 : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
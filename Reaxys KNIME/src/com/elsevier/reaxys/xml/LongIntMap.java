@@ -0,0 +1,160 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.Arrays;
+
+/**
+ * map from long keys to int values without boxing, for joining records by numeric
+ * identifiers like XRN and RX.ID.  A HashMap&lt;String, Integer&gt; takes an entry, a string,
+ * its characters and an Integer for each identifier; this map takes 12 bytes, in two arrays
+ * that are probed in order.
+ *
+ * Values must not be negative, -1 is returned for missing keys.  Long.MIN_VALUE can't be
+ * a key.
+ */
+final class LongIntMap {
+
+	/* marks a free slot */
+	private static final long FREE = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+
+
+	/**
+	 * create an empty map
+	 */
+	LongIntMap() {
+		this(16);
+	}
+
+
+	/**
+	 * create an empty map with room for some keys
+	 *
+	 * @param expected number of keys
+	 */
+	LongIntMap(final int expected) {
+
+		int capacity = 16;
+		while (capacity < 2 * expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+
+	/**
+	 * @param key key to look up
+	 * @return the value of the key, or -1 if it is not in the map
+	 */
+	int get(final long key) {
+
+		int slot = slot(key);
+		while (keys[slot] != FREE) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * set the value of a key
+	 *
+	 * @param key the key
+	 * @param value its value, not negative
+	 */
+	void put(final long key, final int value) {
+		insert(key, value, true);
+	}
+
+
+	/**
+	 * set the value of a key, if it is not in the map yet
+	 *
+	 * @param key the key
+	 * @param value its value, not negative
+	 * @return the value the key already had, or -1 if it was added
+	 */
+	int putIfAbsent(final long key, final int value) {
+		return insert(key, value, false);
+	}
+
+
+	/**
+	 * @return number of keys
+	 */
+	int size() {
+		return size;
+	}
+
+
+	private int insert(final long key, final int value, final boolean replace) {
+
+		if (key == FREE) {
+			throw new IllegalArgumentException("invalid key " + key);
+		}
+
+		int slot = slot(key);
+		while (keys[slot] != FREE) {
+			if (keys[slot] == key) {
+				final int old = values[slot];
+				if (replace) {
+					values[slot] = value;
+				}
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		// keep the table at most half full, so probes are short
+		if (++size > keys.length / 2) {
+			rehash();
+		}
+		return -1;
+	}
+
+
+	private void rehash() {
+
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+
+		allocate(2 * oldKeys.length);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int slot = slot(oldKeys[i]);
+				while (keys[slot] != FREE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+
+	private void allocate(final int capacity) {
+
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+		mask = capacity - 1;
+	}
+
+
+	private int slot(final long key) {
+
+		long h = key * 0x9e3779b97f4a7c15L;
+		h ^= h >>> 32;
+		return (int) h & mask;
+	}
+}
@@ -0,0 +1,87 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * chooses the waits between polls of a search that is still running.  Most searches finish
+ * within a few seconds, so the first poll is soon; the waits then double up to a ceiling, so
+ * searches that take many minutes are not polled more often than needed.  Each wait is varied
+ * at random by up to JITTER, so searches started together do not all poll at the same time.
+ *
+ * The schedule gives up after MAX_WAIT_MS in total, the 30 minutes that were allowed when
+ * searches were polled every 30 seconds.
+ */
+class PollSchedule {
+
+	/* first wait, in milliseconds */
+	static final long FIRST_MS = 1000;
+
+	/* default ceiling of a wait, in milliseconds */
+	static final long DEFAULT_CEILING_MS = 30 * 1000;
+
+	/* total time to wait for a search, in milliseconds */
+	static final long MAX_WAIT_MS = 30 * 60 * 1000;
+
+	/* factor by which the waits grow */
+	static final double BACKOFF = 2.0;
+
+	/* fraction by which a wait is varied at random */
+	static final double JITTER = 0.2;
+
+	private final long ceiling;
+	private double interval = FIRST_MS;
+	private long waited = 0;
+	private int polls = 0;
+
+
+	/**
+	 * create a schedule
+	 *
+	 * @param ceiling longest wait between polls, in milliseconds
+	 */
+	PollSchedule(final long ceiling) {
+		this.ceiling = Math.max(FIRST_MS, ceiling);
+	}
+
+
+	/**
+	 * get the wait before the next poll, and advance the schedule
+	 *
+	 * @return wait in milliseconds, or -1 if the search has taken too long
+	 */
+	long next() {
+
+		if (waited >= MAX_WAIT_MS) {
+			return -1;
+		}
+
+		final double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		final long wait = Math.min(MAX_WAIT_MS - waited, Math.min(ceiling, Math.round(interval * jitter)));
+
+		interval = Math.min(interval * BACKOFF, ceiling);
+		waited += wait;
+		polls++;
+
+		return wait;
+	}
+
+
+	/**
+	 * get the number of polls so far
+	 *
+	 * @return number of waits returned by next
+	 */
+	int getPolls() {
+		return polls;
+	}
+
+
+	/**
+	 * get the total time waited so far
+	 *
+	 * @return milliseconds
+	 */
+	long getWaited() {
+		return waited;
+	}
+}
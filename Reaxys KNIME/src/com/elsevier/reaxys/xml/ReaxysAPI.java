@@ -1,17 +1,28 @@
 package com.elsevier.reaxys.xml;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterOutputStream;
-
-import javax.xml.bind.DatatypeConverter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
@@ -21,10 +32,14 @@ import org.w3c.dom.Document;
 import com.elsevier.reaxys.NodeModelUtilities;
 import com.elsevier.reaxys.ReaxysDataTypes;
 import com.elsevier.reaxys.ReaxysFieldTypes;
+import com.elsevier.reaxys.ResultRecord;
 import com.elsevier.reaxys.memoryBackedList.MemoryBackedList;
+import com.elsevier.reaxys.memoryBackedList.RecordCodec;
 import com.elsevier.reaxys.xml.ReaxysDocument.ReaxysAuthentication;
 import com.elsevier.reaxys.xml.ReaxysDocument.ReaxysDocument;
 import com.elsevier.reaxys.xml.ReaxysDocument.RetrieveResults;
+import com.elsevier.reaxys.xml.utils.CountingInputStream;
+import com.elsevier.reaxys.xml.utils.IO;
 
 
 
@@ -46,6 +61,56 @@ public class ReaxysAPI {
 	int resultCount = 0;
 	String resultSet = "";
 	String resultStatus = "";
+	ResponseCache responseCache = null;
+	// set if a response was missing, so the results should not be cached
+	boolean incomplete = false;
+	// parse retrieved data with the streaming parser instead of building a DOM
+	boolean streamingParser = true;
+	// keep reaction payloads compressed until they are read
+	boolean lazyPayloads = false;
+	// retrieve the parent data of a record with its first page of facts only
+	boolean joinParents = false;
+	// structures added to results in this execution, or null to search them for every row
+	StructureCache structureCache = null;
+	// searches the structures of the facts of the current query while they are retrieved
+	StructureFetcher structureFetcher = null;
+	// seed of the random samples, or -1 for a different sample every time
+	long sampleSeed = -1;
+	// number of record ranges requested ahead of the one being stored
+	int prefetch = 0;
+	// longest wait between polls of a running search, in milliseconds
+	long maxPollInterval = PollSchedule.DEFAULT_CEILING_MS;
+	// search that was sent but not yet retrieved, with the request to poll it if it is running
+	RetrieveResults startedSearch = null;
+	String startedKey = null;
+	Document pollDocument = null;
+	PollSchedule pollSchedule = null;
+	
+	/*
+	 * threads for requests sent ahead.  Shared by all queries; the number of requests in flight
+	 * is limited by the prefetch depth of each query, and the connection limit of the session.
+	 */
+	static final ExecutorService prefetchPool = Executors.newCachedThreadPool(new ThreadFactory() {
+		
+		final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "Reaxys prefetch-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/*
+	 * how often to check for cancellation while waiting for a response, in milliseconds
+	 */
+	static final long POLL_MS = 250;
+	
+	/*
+	 * estimated bytes of the structures that addStructures keeps in memory for the join
+	 */
+	private static final long JOIN_MEMORY_BYTES = 64L << 20;
 	
 	/**
 	 * return total number of results, even if only a subset are being returned.
@@ -56,6 +121,96 @@ public class ReaxysAPI {
 		return resultCount;
 	}
 	
+	/**
+	 * set the persistent cache for query results.  Results are looked up in the cache before
+	 * asking Reaxys, and stored in it afterwards.
+	 * 
+	 * @param cache response cache, or null for no caching
+	 */
+	public void setCache(final ResponseCache cache) {
+		responseCache = cache;
+	}
+	
+	/**
+	 * choose the parser for retrieved data.  The streaming parser does not build a DOM of
+	 * the response; the DOM parser is kept for comparison.
+	 * 
+	 * @param streaming true to use the streaming parser, false for the DOM parser
+	 */
+	public void setStreamingParser(final boolean streaming) {
+		streamingParser = streaming;
+	}
+	
+	/**
+	 * choose when reaction payloads are inflated.  Kept compressed they take about a tenth
+	 * of the memory and spill file space, and are inflated when the result is read, see
+	 * {@link CompressedPayload}.
+	 * 
+	 * @param lazy true to keep reactions compressed, false to inflate them when retrieved
+	 */
+	public void setLazyPayloads(final boolean lazy) {
+		lazyPayloads = lazy;
+	}
+	
+	/**
+	 * choose whether the parent data of a record, like the identification of a substance,
+	 * is retrieved with every page of its facts, or only with the first one and copied into
+	 * the facts of the later pages, see {@link FactPlan}.
+	 * 
+	 * @param join true to retrieve the parent data once
+	 */
+	public void setJoinParents(final boolean join) {
+		joinParents = join;
+	}
+	
+	/**
+	 * @return server and account of the session, for the keys of the response cache
+	 */
+	String cacheAccount() {
+		return ResponseCache.account(reaxysDocumentFactory.getUrl(), reaxysDocumentFactory.getApikey(),
+				reaxysDocumentFactory.getUsername());
+	}
+	
+	
+	/**
+	 * set the cache of structures for addStructures, which is shared by all lookups of an
+	 * execution, so each structure is only retrieved once.
+	 * 
+	 * @param cache structure cache, or null to retrieve the structures for each lookup
+	 */
+	public void setStructureCache(final StructureCache cache) {
+		structureCache = cache;
+	}
+	
+	/**
+	 * set the seed of random samples, so the same sample is drawn every time
+	 * 
+	 * @param seed the seed, or -1 for a different sample every time
+	 */
+	public void setSampleSeed(final long seed) {
+		sampleSeed = seed;
+	}
+	
+	/**
+	 * set the number of record ranges that are requested ahead, while the current range is
+	 * being stored.  0 requests each range only when it is needed.
+	 * 
+	 * @param depth number of ranges in flight ahead of the current one
+	 */
+	public void setPrefetch(final int depth) {
+		prefetch = Math.max(0, depth);
+	}
+	
+	/**
+	 * set the longest wait between polls of a search that is still running.  The first poll
+	 * is after about a second, and the waits double up to this value.
+	 * 
+	 * @param seconds longest wait in seconds
+	 */
+	public void setMaxPollInterval(final int seconds) {
+		maxPollInterval = Math.max(1, seconds) * 1000L;
+	}
+	
 	/**
 	 * return result set name.
 	 * 
@@ -105,6 +260,14 @@ public class ReaxysAPI {
 	public ReaxysAPI(final ReaxysAPI old) {
 		this.reaxysDocumentFactory = old.reaxysDocumentFactory;
 		this.exec = old.exec;
+		this.responseCache = old.responseCache;
+		this.streamingParser = old.streamingParser;
+		this.lazyPayloads = old.lazyPayloads;
+		this.joinParents = old.joinParents;
+		this.structureCache = old.structureCache;
+		this.sampleSeed = old.sampleSeed;
+		this.prefetch = old.prefetch;
+		this.maxPollInterval = old.maxPollInterval;
 	}
 	
 	
@@ -114,11 +277,11 @@ public class ReaxysAPI {
 	 * @param maps arraylist of hashmaps
 	 * @return set of unique hashmap keys
 	 */
-	public static Set<String> keySet(List<HashMap<String, String>> maps) {
+	public static Set<String> keySet(List<ResultRecord> maps) {
 
 		final HashSet<String> result = new HashSet<String>();
 
-		for (final HashMap<String, String> map : maps) {
+		for (final ResultRecord map : maps) {
 			result.addAll(map.keySet());
 		}
 
@@ -144,7 +307,7 @@ public class ReaxysAPI {
 	 * 
 	 * @throws Exception
 	 */
-	public List<HashMap<String, String>> getFact(final String idField,
+	public List<ResultRecord> getFact(final String idField,
 			final String id, final String query, ReaxysDataTypes dataType, int startResult, int maxResults, 
 			boolean useSampling, boolean addStructures, boolean sd_v3, String sortString) throws Exception  {
 		
@@ -153,17 +316,48 @@ public class ReaxysAPI {
 				max = Integer.MAX_VALUE;
 			}
 			final int min = startResult < 1 ? 1 : startResult;
+			
+			/*
+			 * random samples are different every time, so they are not cached
+			 */
+			String cacheKey = null;
+			incomplete = false;
+			if (responseCache != null && !useSampling) {
+				cacheKey = ResponseCache.key(cacheAccount(), dataType, idField, id, query, min, max, addStructures, sd_v3, sortString);
+				final ResponseCache.Entry cached = responseCache.get(cacheKey);
+				if (cached != null) {
+					resultCount = cached.resultCount;
+					return cached.results;
+				}
+			}
 		
-			List<HashMap<String, String>> result;
+			List<ResultRecord> result;
 			
-			if (useSampling) {
-				result =  getFactSampling(idField, id, query, dataType, min, max, sd_v3, sortString);
-			} else {
-				result =  getFactComplete(idField, id, query, dataType, min, max, sd_v3, sortString);
+			// with prefetching, structures are searched while the facts are retrieved
+			if (addStructures && prefetch > 0 && !useSampling) {
+				structureFetcher = new StructureFetcher(this, StructureFetcher.structureType(dataType), sd_v3);
+			}
+			
+			try {
+				if (useSampling) {
+					result =  getFactSampling(idField, id, query, dataType, min, max, sd_v3, sortString);
+				} else {
+					result =  getFactComplete(idField, id, query, dataType, min, max, sd_v3, sortString);
+				}
+
+				if (addStructures) {
+					result = addStructures(result, sd_v3);
+				}
+			} finally {
+				if (structureFetcher != null) {
+					structureFetcher.cancel();
+					structureFetcher = null;
+				}
 			}
 			
-			if (addStructures) {
-				result = addStructures(result, sd_v3);
+			// don't keep results of searches that didn't finish or lost a chunk
+			if (cacheKey != null && !incomplete && !resultStatus.equals("running")) {
+				responseCache.put(cacheKey, resultCount, result);
 			}
 			
 			return result;
@@ -171,7 +365,79 @@ public class ReaxysAPI {
 
 
 	/**
-	 * do initial search in Reaxy to get the result set
+	 * look up several identifiers with one search, like IDE.XRN=1;2;3, the way addStructures
+	 * searches structures, and split the records up again by the value of the identifier field.
+	 * The identifier field must identify a single record, like IDE.XRN or RX.ID, and the 
+	 * identifiers must be written the way Reaxys returns them.
+	 * 
+	 * @param idField   identifier field, e.g. IDE.XRN
+	 * @param ids       identifiers to search for
+	 * @param query     extra query, which applies to each identifier
+	 * @param dataType  type of data requested
+	 * @param addStructures  add structures to the records
+	 * @param sd_v3     if adding structures, use V3000 format
+	 * @param sortString optional sort order
+	 * 
+	 * @return map from each identifier to its records, or null if the records can't be 
+	 * matched to the identifiers because they don't have the identifier field
+	 * @throws Exception on error
+	 */
+	public Map<String, List<ResultRecord>> getFactBatch(final String idField,
+			final List<String> ids, final String query, final ReaxysDataTypes dataType,
+			final boolean addStructures, final boolean sd_v3, final String sortString) throws Exception {
+		
+		final LinkedHashMap<String, List<ResultRecord>> result = 
+				new LinkedHashMap<String, List<ResultRecord>>();
+		
+		final StringBuilder batchQuery = new StringBuilder(idField.trim()).append("=");
+		
+		for (final String id : ids) {
+			if (!result.containsKey(id)) {
+				if (!result.isEmpty()) {
+					batchQuery.append(";");
+				}
+				batchQuery.append(id);
+				result.put(id, new ArrayList<ResultRecord>());
+			}
+		}
+		
+		if (query != null && !query.trim().equals("")) {
+			batchQuery.append(" AND ").append(query);
+		}
+		
+		final List<ResultRecord> records = getFact("", "", batchQuery.toString(), dataType, 
+				1, -1, false, addStructures, sd_v3, sortString);
+		
+		final String idLabel = ReaxysFieldTypes.getLabel(idField.trim());
+		
+		for (final ResultRecord record : records) {
+			
+			String value = record.get(idLabel);
+			if (value == null) {
+				return null;
+			}
+			
+			// a repeated field has the identifier of the record first
+			if (value.contains(RetrieveResults.MULITPLE_VALUE_SEPARATOR)) {
+				value = value.substring(0, value.indexOf(RetrieveResults.MULITPLE_VALUE_SEPARATOR));
+			}
+			
+			final List<ResultRecord> idRecords = result.get(value.trim());
+			if (idRecords == null) {
+				return null;
+			}
+			idRecords.add(record);
+		}
+		
+		records.clear();
+		
+		return result;
+	}
+	
+	
+	/**
+	 * do initial search in Reaxy to get the result set.  If the same search was started
+	 * with {@link #submitSearch}, that search is used instead of sending it again.
 	 * 
 	 * @param idField   Reaxys field to create the query, e.g. IDE.XRN
 	 * @param id		identifier to use with the field.
@@ -180,11 +446,157 @@ public class ReaxysAPI {
 	 * @param maxResults maximum results to return
 	 * @return RetrieveResults object
 	 * @throws InterruptedException 
+	 * @throws CanceledExecutionException if the node was cancelled while the search was running
 	 */
 	final RetrieveResults initialSearch(final String idField,
-			final String id, final String query, final ReaxysDataTypes dataType, int maxResults, boolean sd_v3, String sortString) throws InterruptedException {
-
+			final String id, final String query, final ReaxysDataTypes dataType, int maxResults, boolean sd_v3, String sortString) 
+					throws InterruptedException, CanceledExecutionException {
 
+		final Document searchDoc = searchDocument(idField, id, query, dataType, sortString);
+		final String key = reaxysDocumentFactory.getIO().docToString(searchDoc);
+		
+		if (startedSearch == null || !key.equals(startedKey)) {
+			startSearch(searchDoc, sd_v3);
+		}
+		startedKey = null;
+		
+		// If resultStatus is 'running' then wait and try again, more slowly each time, for up to 30 mins
+		long wait;
+		while(isSearchRunning() && (wait = pollSchedule.next()) > 0) {
+			if (logger != null) logger.info(String.format("Still running, waiting %.1f sec (repeat: %d)",
+					wait / 1000.0, pollSchedule.getPolls()));
+			pause(wait);
+			// if not running, then we can move on
+			if(!pollSearch()) {
+				if (logger != null) logger.info(String.format("Results are ready after %.1f sec", 
+						pollSchedule.getWaited() / 1000.0));
+			}
+		}
+		
+		final RetrieveResults retrieveResults = startedSearch;
+		startedSearch = null;
+		pollDocument = null;
+		
+		return retrieveResults;
+	}
+	
+	
+	/**
+	 * send the search for a query without waiting for it to finish, so the server can run it
+	 * while other searches are retrieved.  The next getFact with the same arguments uses this 
+	 * search.  Nothing is sent if the results are in the cache.
+	 * 
+	 * @param idField   Reaxys field to create the query, e.g. IDE.XRN
+	 * @param id		identifier to use with the field.
+	 * @param query 	extra query
+	 * @param dataType	type of data requested
+	 * @param startResult first result that will be returned
+	 * @param maxResults maximum results to return
+	 * @param useSampling sample the results
+	 * @param addStructures add structures to the results
+	 * @param sd_v3     if adding structures, use V3000 format
+	 * @param sortString optional sort order
+	 */
+	public void submitSearch(final String idField, final String id, final String query, 
+			final ReaxysDataTypes dataType, int startResult, int maxResults, boolean useSampling, 
+			boolean addStructures, boolean sd_v3, String sortString) {
+		
+		if (responseCache != null && !useSampling) {
+			final String cacheKey = ResponseCache.key(cacheAccount(), dataType, idField, id, query, 
+					startResult < 1 ? 1 : startResult, maxResults < 1 ? Integer.MAX_VALUE : maxResults, 
+					addStructures, sd_v3, sortString);
+			if (responseCache.contains(cacheKey)) {
+				return;
+			}
+		}
+		
+		final Document searchDoc = searchDocument(idField, id, query, dataType, sortString);
+		startedKey = reaxysDocumentFactory.getIO().docToString(searchDoc);
+		startSearch(searchDoc, sd_v3);
+	}
+	
+	
+	/**
+	 * return true if the search that was started is still running on the server
+	 * 
+	 * @return true if there is a search that has to be polled
+	 */
+	public boolean isSearchRunning() {
+		return startedSearch != null && resultStatus.equals("running");
+	}
+	
+	
+	/**
+	 * get the wait before the next poll of the search that is running
+	 * 
+	 * @return wait in milliseconds, or -1 if the search has taken too long
+	 */
+	public long nextPoll() {
+		return pollSchedule.next();
+	}
+	
+	
+	/**
+	 * ask the server once whether the search that was started has finished
+	 * 
+	 * @return true if the search is still running
+	 */
+	public boolean pollSearch() {
+		
+		final Document tempResult = reaxysDocumentFactory.request(pollDocument);
+		startedSearch = new RetrieveResults(reaxysDocumentFactory, tempResult, startedSearch.getSD_V3());
+		resultStatus = startedSearch.resStatus();
+		resultCount = startedSearch.size();
+		resultSet = startedSearch.resName();
+		
+		return resultStatus.equals("running");
+	}
+	
+	
+	/**
+	 * send a search request.  If the search is still running, the request to poll it is made
+	 * from the search.
+	 * 
+	 * @param searchDoc search request
+	 * @param sd_v3 use V3000 format for structures
+	 */
+	private void startSearch(final Document searchDoc, final boolean sd_v3) {
+		
+		final Document tempResult = reaxysDocumentFactory.request(searchDoc);
+		
+		startedSearch = new RetrieveResults(reaxysDocumentFactory, tempResult, sd_v3);
+		resultStatus = startedSearch.resStatus();
+		resultCount = startedSearch.size();
+		resultSet = startedSearch.resName();
+		pollDocument = null;
+		
+		if(resultStatus.equals("running")) {
+			reaxysDocumentFactory.setAttribute(searchDoc, "from_clause", "resultname", resultSet);
+			reaxysDocumentFactory.setAttribute(searchDoc, "from_clause", "first_item", "1");
+			reaxysDocumentFactory.setAttribute(searchDoc, "from_clause", "last_item", "1");
+			reaxysDocumentFactory.removeNode(searchDoc, "where_clause");
+			reaxysDocumentFactory.createElement(searchDoc, "request", "select_list");
+			reaxysDocumentFactory.createElement(searchDoc, "select_list", "select_item");
+			reaxysDocumentFactory.setTextNode(searchDoc, "select_item", "RX.ID");
+			pollDocument = searchDoc;
+			pollSchedule = new PollSchedule(maxPollInterval);
+		}
+	}
+	
+	
+	/**
+	 * create the search request for a query
+	 * 
+	 * @param idField   Reaxys field to create the query, e.g. IDE.XRN
+	 * @param id		identifier to use with the field.
+	 * @param query 	extra query
+	 * @param dataType	type of data requested
+	 * @param sortString optional sort order
+	 * @return search request
+	 */
+	private Document searchDocument(final String idField, final String id, final String query, 
+			final ReaxysDataTypes dataType, final String sortString) {
+		
 		final Document searchDoc = reaxysDocumentFactory.createDocument("search");
 		String queryString = "";
 
@@ -240,42 +652,7 @@ public class ReaxysAPI {
 		
 		reaxysDocumentFactory.setTextNode(searchDoc, "options", "WORKER,NO_CORESULT");
 
-		Document tempResult = reaxysDocumentFactory.request(searchDoc);
-		
-		RetrieveResults tempRetrieveResults = new RetrieveResults(reaxysDocumentFactory, tempResult, sd_v3);
-		resultStatus = tempRetrieveResults.resStatus();
-		resultCount = tempRetrieveResults.size();
-		resultSet = tempRetrieveResults.resName();
-		// If resultStatus is 'running' then wait 30 seconds and try again. repeat up to 60x (30 mins)
-		if(resultStatus.equals("running")) {
-			reaxysDocumentFactory.setAttribute(searchDoc, "from_clause", "resultname", resultSet);
-			reaxysDocumentFactory.setAttribute(searchDoc, "from_clause", "first_item", "1");
-			reaxysDocumentFactory.setAttribute(searchDoc, "from_clause", "last_item", "1");
-			reaxysDocumentFactory.removeNode(searchDoc, "where_clause");
-			reaxysDocumentFactory.createElement(searchDoc, "request", "select_list");
-			reaxysDocumentFactory.createElement(searchDoc, "select_list", "select_item");
-			reaxysDocumentFactory.setTextNode(searchDoc, "select_item", "RX.ID");
-			int i = 1;
-			while(i <= 60) {
-				if (logger != null) logger.info("Still running, waiting 30 sec (repeat: " + i + ")");
-				Thread.sleep(30000);
-				tempResult = reaxysDocumentFactory.request(searchDoc);
-				tempRetrieveResults = new RetrieveResults(reaxysDocumentFactory, tempResult, sd_v3);
-				resultStatus = tempRetrieveResults.resStatus();
-				resultCount = tempRetrieveResults.size();
-				resultSet = tempRetrieveResults.resName();
-				// if not running, then we can move on
-				if(!resultStatus.equals("running")) {
-					if (logger != null) logger.info("Results are ready");
-					break;
-				}
-				i++;
-			}
-		}
-		
-		final RetrieveResults retrieveResults = tempRetrieveResults;
-		
-		return retrieveResults;
+		return searchDoc;
 	}
 	
 	
@@ -298,14 +675,14 @@ public class ReaxysAPI {
 	 * 
 	 * @throws Exception
 	 */
-	final public List<HashMap<String, String>> getFactComplete(final String idField,
+	final public List<ResultRecord> getFactComplete(final String idField,
 			final String id, final String query, final ReaxysDataTypes dataType, int minResult, int maxResults, 
 			boolean sd_v3, String sortString) throws Exception  {
 		
 		/*
 		 * storage for results
 		 */
-		final MemoryBackedList<HashMap<String, String>> results = new MemoryBackedList<HashMap<String, String>>();
+		final MemoryBackedList<ResultRecord> results = new MemoryBackedList<ResultRecord>(new RecordCodec());
 		/*
 		 * initial search
 		 */
@@ -327,87 +704,121 @@ public class ReaxysAPI {
 			return results;
 		}
 
-		final int MAX_START = 10000; // fail safe, maximum chunks
-		final int RESULT_MAX = 50; // changed from 1000; smaller numbers are faster
-		final int RESULT_INCREMENT = Math.min(RESULT_MAX, numResults); // chunk size for molecules
-		final int RESULT_CHUNK = 100; // chunk size for facts
-		int resultsReturned = 0;
+		// records per range and facts per request are adapted to the data type
+		final ChunkSizer sizer = ChunkSizer.forType(dataType);
 		
-		// loop over results in chunks of about 1000
-		for (int i = minResult; i <= numResults + minResult -1; i += RESULT_INCREMENT) {
-
-			boolean done = false;
-			int start = 1;
-
-			/* for each chunk of molecules/reactions, get chunks of facts in
-			 groups of RESULT_CHUNK. we don't know how many we will get so we loop until no more are
-			 returned. 
-			 */
-			while (!done && start < MAX_START) {
-
-				final int end = start + RESULT_CHUNK - 1; // starts at 1, not zero
-				String queryRange =fact + "(" + start + "," + end + ")";
-				
-				// special case; there is only one  structure per compound , so we are done here
-				// after one
-				if (structureFields.contains(fact)) {
-					queryRange = fact;
-					done = true;
+		// the first chunk of each record range is always needed, so these are requested ahead
+		final LinkedList<Range> prefetched = new LinkedList<Range>();
+		final int lastResult = numResults + minResult - 1;
+		int nextRange = minResult;
+		
+		// requests for more facts of the current range
+		List<Range> requests = Collections.emptyList();
+		
+		try {
+			
+			// loop over results in ranges of records
+			while (nextRange <= lastResult || !prefetched.isEmpty()) {
+
+				// keep the first chunks of the next ranges in flight
+				while (nextRange <= lastResult && prefetched.size() <= prefetch) {
+					final Range range = new Range(nextRange, 
+							Math.min(lastResult, nextRange + sizer.getRecords() - 1), sizer.getFacts());
+					range.chunk = submit(retrieveResults, range, queryRange(fact, 1, range.facts), sizer);
+					prefetched.add(range);
+					nextRange = range.last + 1;
 				}
-								
-				final String msg1 = String.format("fetching facts %d to %d for rows %d to %d of %d",
-						start, end, i, Math.min(numResults, (i+RESULT_INCREMENT - 1)), numResults);
-				
-				if (exec != null) exec.getProgressMonitor().setProgress(msg1);
-
-				final Document request = retrieveResults.retrieveValues(queryRange, i, 
-						i + RESULT_INCREMENT - 1);
-				
-				// increment start value by RESULT_CHUNK
-				start += RESULT_CHUNK;
 				
-				final Document resultDocument = reaxysDocumentFactory.request(request);
-
-				if (resultDocument == null) {  // fail-safe; this is an error
-					continue;
-				}
-
-				// result from this loop.  For streaming output one could do something with this instead
-				// of accumulating data in memory.
-				final List<HashMap<String, String>> resultMap = retrieveResults
-						.getResults(resultDocument);
+				final Range range = prefetched.removeFirst();
+				boolean moreFacts = false;
+
+				/* for each range of molecules/reactions, get chunks of facts in
+				 groups of range.facts.  The response of each chunk tells which records can
+				 have more facts, and only those are requested next, all at once; see FactPlan.
+				 */
+				final FactPlan plan = new FactPlan(fact, range, joinParents);
+				requests = Collections.singletonList(range);
 				
-				fixSDF(resultMap);
-				resultsReturned = resultMap.size();
-
-				if (resultsReturned == 0 ) {
-					done = true;
-					break;
-				} else {
-					results.addAll(resultMap);
-					if (resultsReturned < RESULT_CHUNK) {
-						done = true;
+				while (!requests.isEmpty()) {
+					
+					for (final Range request : requests) {
+						
+						final String msg1 = String.format("fetching facts %d to %d for rows %d to %d of %d",
+								request.start, request.start + request.facts - 1, request.first, request.last, numResults);
+						
+						if (exec != null) exec.getProgressMonitor().setProgress(msg1);
+	
+						// result from this loop.  For streaming output one could do something with this instead
+						// of accumulating data in memory.
+						List<ResultRecord> resultMap = take(request.chunk);
+						
+						// facts that can't be matched to their parents are retrieved again with them
+						if (!plan.join(request, resultMap)) {
+							final Range retry = new Range(request.first, request.last, request.facts, request.start, true);
+							resultMap = take(submit(retrieveResults, retry, 
+									queryRange(fact, retry.start, retry.start + retry.facts - 1), sizer));
+						}
+						plan.learn(request, resultMap);
+						
+						if (resultMap == null) {  // fail-safe; this is an error
+							incomplete = true;
+							continue;
+						}
+						
+						fixSDF(resultMap);
+						results.addAll(resultMap);
+						if (structureFetcher != null) {
+							structureFetcher.request(resultMap);
+						}
+						
+						if (exec != null) {
+							try { exec.checkCanceled(); } catch (CanceledExecutionException cee) {
+								results.close();
+								throw new CanceledExecutionException();
+							}
+						}
+					}
+					
+					// special case; there is only one  structure per compound , so we are done here
+					// after one
+					if (structureFields.contains(fact)) {
+						break;
 					}
+					
+					requests = plan.next();
+					for (final Range request : requests) {
+						request.chunk = submit(retrieveResults, request, 
+								queryRange(fact, request.start, request.start + request.facts - 1), sizer);
+					}
+					moreFacts |= !requests.isEmpty();
+				} // end of inner loop for facts
+				
+				// records had more facts than one request returned
+				if (moreFacts) {
+					sizer.moreFacts();
 				}
 				
 				if (exec != null) {
-					try { exec.checkCanceled(); } catch (CanceledExecutionException cee) {
+					try { exec.checkCanceled(); } catch (CanceledExecutionException cee){
 						results.close();
 						throw new CanceledExecutionException();
 					}
 				}
-			} // end of inner loop for facts
 			
-			if (exec != null) {
-				try { exec.checkCanceled(); } catch (CanceledExecutionException cee){
-					results.close();
-					throw new CanceledExecutionException();
+				if (results.size() == 0) {
+					break;
 				}
 			}
-			
-			if (results.size() == 0) {
-				done = true;
-				break;
+		
+		} finally {
+			// requests that are no longer needed
+			for (final Range range : prefetched) {
+				range.chunk.cancel(true);
+			}
+			for (final Range request : requests) {
+				if (request.chunk != null) {
+					request.chunk.cancel(true);
+				}
 			}
 		}
 
@@ -421,6 +832,217 @@ public class ReaxysAPI {
 
 	
 	
+	/**
+	 * a range of records of the result set, with the first fact and the number of facts per
+	 * record requested for it, whether the parent data is requested with the facts, and the
+	 * request for that chunk of facts.
+	 */
+	static class Range {
+		
+		final int first;
+		final int last;
+		final int facts;
+		final int start;
+		final boolean parents;
+		Future<List<ResultRecord>> chunk = null;
+		
+		Range(final int first, final int last, final int facts) {
+			this(first, last, facts, 1, true);
+		}
+		
+		Range(final int first, final int last, final int facts, final int start, final boolean parents) {
+			this.first = first;
+			this.last = last;
+			this.facts = facts;
+			this.start = start;
+			this.parents = parents;
+		}
+		
+		int size() {
+			return last - first + 1;
+		}
+	}
+	
+	
+	/**
+	 * get the select item for a chunk of facts.  Structures have no fact ranges.
+	 * 
+	 * @param fact data type code
+	 * @param start first fact
+	 * @param end last fact
+	 * @return select item
+	 */
+	static String queryRange(final String fact, final int start, final int end) {
+		
+		if (structureFields.contains(fact)) {
+			return fact;
+		}
+		return fact + "(" + start + "," + end + ")";
+	}
+	
+	
+	/**
+	 * send a retrieve request on a prefetch thread.  Without prefetching the request is sent
+	 * right away on this thread.
+	 * 
+	 * @param retrieveResults result set the request is for
+	 * @param range range of records to retrieve
+	 * @param queryRange select item with the facts to retrieve
+	 * @param sizer sizer that learns from the response
+	 * @return future list of records
+	 */
+	Future<List<ResultRecord>> submit(final RetrieveResults retrieveResults, final Range range,
+			final String queryRange, final ChunkSizer sizer) {
+		
+		// documents are created on this thread, only the request is sent on the prefetch thread
+		final Document request = retrieveResults.retrieveValues(queryRange, range.first, range.last, range.parents);
+		
+		final Callable<List<ResultRecord>> task = new Callable<List<ResultRecord>>() {
+			@Override
+			public List<ResultRecord> call() throws Exception {
+				return fetch(retrieveResults, range, request, sizer);
+			}
+		};
+		
+		if (prefetch < 1) {
+			final FutureTask<List<ResultRecord>> future = new FutureTask<List<ResultRecord>>(task);
+			future.run();
+			return future;
+		}
+		
+		return prefetchPool.submit(task);
+	}
+	
+	
+	/**
+	 * send a retrieve request, and tell the sizer the size and time of the response.  The time
+	 * is taken from the exchange, so time spent waiting for a connection is not counted, and
+	 * a request that fails because the node was cancelled is not counted as a failure.
+	 * 
+	 * @param retrieveResults result set the request is for
+	 * @param range range of records to retrieve
+	 * @param request retrieve request
+	 * @param sizer sizer that learns from the response
+	 * @return list of records, or null if the request failed
+	 */
+	List<ResultRecord> fetch(final RetrieveResults retrieveResults, final Range range,
+			final Document request, final ChunkSizer sizer) {
+		
+		final IO io = reaxysDocumentFactory.getIO();
+		final AtomicLong bytes = new AtomicLong();
+		
+		io.takeExchangeTime();
+		final List<ResultRecord> result = retrieve(retrieveResults, request, bytes);
+		final long time = io.takeExchangeTime();
+		
+		if (result == null) {
+			if (!Thread.currentThread().isInterrupted() && !isCanceled()) {
+				sizer.failed();
+			}
+		} else if (time >= 0) {
+			sizer.observe(range.size(), bytes.get(), time);
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * wait, checking for cancellation while waiting, so a cancelled node does not wait for
+	 * the rest of a long pause.
+	 * 
+	 * @param ms time to wait in milliseconds
+	 * @throws InterruptedException if the thread was interrupted
+	 * @throws CanceledExecutionException if the node was cancelled
+	 */
+	void pause(final long ms) throws InterruptedException, CanceledExecutionException {
+		
+		final long end = System.currentTimeMillis() + ms;
+		long left = ms;
+		
+		while (left > 0) {
+			
+			if (exec != null) {
+				exec.checkCanceled();
+			}
+			
+			Thread.sleep(Math.min(left, POLL_MS));
+			left = end - System.currentTimeMillis();
+		}
+	}
+	
+	
+	/**
+	 * @return true if the node was cancelled
+	 */
+	private boolean isCanceled() {
+		
+		if (exec == null) {
+			return false;
+		}
+		try {
+			exec.checkCanceled();
+			return false;
+		} catch (CanceledExecutionException e) {
+			return true;
+		}
+	}
+	
+	
+	/**
+	 * wait for a request sent with {@link #submit}, checking for cancellation while waiting.
+	 * 
+	 * @param future the request
+	 * @return list of records, or null if the request failed
+	 * @throws Exception CanceledExecutionException if the node was cancelled
+	 */
+	List<ResultRecord> take(final Future<List<ResultRecord>> future) throws Exception {
+		
+		while (true) {
+			
+			if (exec != null) {
+				exec.checkCanceled();
+			}
+			
+			try {
+				return future.get(POLL_MS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// still waiting for the response
+			} catch (ExecutionException e) {
+				if (logger != null) logger.error("error retrieving data: " + e.getCause());
+				return null;
+			}
+		}
+	}
+	
+	
+	/**
+	 * send a retrieve request and parse the records of the response.
+	 * 
+	 * @param retrieveResults result set the request is for
+	 * @param request retrieve request
+	 * @param bytes counter for the size of the response; not counted by the DOM parser 
+	 * @return list of records, or null if the request or the parse failed
+	 */
+	List<ResultRecord> retrieve(final RetrieveResults retrieveResults, final Document request,
+			final AtomicLong bytes) {
+		
+		if (!streamingParser) {
+			final Document resultDocument = reaxysDocumentFactory.request(request);
+			return resultDocument == null ? null : retrieveResults.getResults(resultDocument);
+		}
+		
+		// parse the records straight from the connection
+		return reaxysDocumentFactory.request(request, new IO.ResponseHandler<List<ResultRecord>>() {
+			@Override
+			public List<ResultRecord> read(final InputStream response) throws Exception {
+				return retrieveResults.getResults(new InputStreamReader(
+						new CountingInputStream(response, bytes), IO.TEXT_ENCODING));
+			}
+		});
+	}
+	
+	
 	/**
 	 * Retrieve a random sampling of the results.  That is if N results are requested, randomly choose N from the
 	 * total result set.
@@ -444,7 +1066,7 @@ public class ReaxysAPI {
 	 * 
 	 * @throws Exception
 	 */
-	final public List<HashMap<String, String>> getFactSampling(final String idField,
+	final public List<ResultRecord> getFactSampling(final String idField,
 			final String id, final String query, final ReaxysDataTypes dataType, 
 			int minResult, int maxResults, boolean sd_v3, String sortString) throws Exception  {
 		
@@ -453,7 +1075,7 @@ public class ReaxysAPI {
 		/*
 		 * storage for results
 		 */
-		final MemoryBackedList<HashMap<String, String>> results = new MemoryBackedList<HashMap<String, String>>();
+		final MemoryBackedList<ResultRecord> results = new MemoryBackedList<ResultRecord>(new RecordCodec());
 		/*
 		 * initial search
 		 */
@@ -472,79 +1094,63 @@ public class ReaxysAPI {
 			return results;
 		}
 		
-		final int MAX_START = 10000; // fail safe, maximum chunks
-		final int RESULT_CHUNK = 1; // chunk size for facts
-		final int SAMPLE_SIZE = 1;
-		// source of randomness.
-		final Random rand = new Random();
-		
-		// create a non-duplicated array of items
-		final HashSet<Integer> sampleList = new HashSet<Integer>();
-		
-		while (sampleList.size() < Math.ceil((float)numResults/SAMPLE_SIZE)) {
-			sampleList.add((int) ((Math.floor(rand.nextInt(resultCount)/SAMPLE_SIZE) * SAMPLE_SIZE) + minResult ) + 1);
+		// records from the start result on are sampled
+		final int population = resultCount - minResult + 1;
+		if (population < 1) {
+			return results;
 		}
 		
-		// create a sorted list
-		final Integer[] listArray = sampleList.toArray(new Integer[sampleList.size()]);
-		Arrays.sort(listArray);
+		// source of randomness, repeatable with a seed
+		final Random rand = sampleSeed >= 0 ? new Random(sampleSeed) : new Random();
+		final int[] sample = sample(rand, population, Math.min(numResults, population));
 		
+		/*
+		 * the first fact of each sampled record is retrieved.  Runs of adjacent records are
+		 * retrieved with one request, and requests are sent ahead like the ranges of 
+		 * getFactComplete.
+		 */
+		final ChunkSizer sizer = ChunkSizer.forType(dataType);
+		final String queryRange = queryRange(fact, 1, 1);
+		final LinkedList<Range> prefetched = new LinkedList<Range>();
+		int next = 0;
 		int counter = 0;
-		int resultsReturned = 0;
 		
-		// loop over random samples
-		for (Integer i : listArray) {
+		try {
+			
+			while (next < sample.length || !prefetched.isEmpty()) {
 				
-			boolean done = false;
-			int start = 1;
-
-			/* for each chunk of molecules/reactions, get chunks of facts in
-			 groups of RESULT_CHUNK. we don't know how many we will get so we loop until no more are
-			 returned. 
-			 */
-			while (!done && start < MAX_START) {
-
-				final int end = start + SAMPLE_SIZE - 1; // starts at 1, not zero
+				while (next < sample.length && prefetched.size() <= prefetch) {
+					
+					final int first = sample[next++];
+					int last = first;
+					
+					while (next < sample.length && sample[next] == last + 1 
+							&& last - first + 1 < sizer.getRecords()) {
+						last = sample[next++];
+					}
+					
+					final Range range = new Range(first + minResult, last + minResult, 1);
+					range.chunk = submit(retrieveResults, range, queryRange, sizer);
+					prefetched.add(range);
+				}
 				
-				String queryRange = fact + "(" + start + "," + end + ")";
+				final Range range = prefetched.removeFirst();
 				
-				// special case; there is only one  structure per compound , so we are done here
-				// after one
-				if (structureFields.contains(fact)) {
-					queryRange = fact;
-					done = true;
-				}
-								
-				final String msg1 = String.format("fetching row %d of %d",
-						counter, numResults);
-				counter++;
+				final String msg1 = String.format("fetching row %d of %d", counter, sample.length);
+				counter += range.size();
 				if (exec != null) exec.getProgressMonitor().setProgress(msg1);
-
-				final Document request = retrieveResults.retrieveValues(queryRange, i, 
-						i + SAMPLE_SIZE - 1);
 				
-				final Document resultDocument = reaxysDocumentFactory.request(request);
+				// result from this loop.  For streaming output one could do something with this instead
+				// of accumulating data in memory.
+				final List<ResultRecord> resultMap = take(range.chunk);
 				
-				if (resultDocument == null) {  // fail-safe; this is an error
+				if (resultMap == null) {  // fail-safe; this is an error
+					incomplete = true;
 					continue;
 				}
-
-				// result from this loop.  For streaming output one could do something with this instead
-				// of accumulating data in memory.
-				final List<HashMap<String, String>> resultMap = retrieveResults
-						.getResults(resultDocument);
 				
 				fixSDF(resultMap);
-				resultsReturned = resultMap.size();
-
-				if (resultsReturned == 0 ) {
-					break;
-				} else {
-					results.addAll(resultMap);
-					if (resultsReturned <= RESULT_CHUNK || results.size() > maxResults) {
-						done = true;
-					}
-				}
+				results.addAll(resultMap);
 				
 				if (exec != null) {
 					try { exec.checkCanceled(); } catch (CanceledExecutionException cee){
@@ -552,16 +1158,17 @@ public class ReaxysAPI {
 						throw new CanceledExecutionException();
 					}
 				}
-			}
-			
-			if (exec != null) {
-				try { exec.checkCanceled(); } catch (CanceledExecutionException cee){
-					results.close();
-					throw new CanceledExecutionException();
+				
+				if (results.size() >= maxResults) {
+					break;
 				}
 			}
 			
-			if (results.size() == 0 || results.size() > maxResults) break;
+		} finally {
+			// requests that are no longer needed
+			for (final Range range : prefetched) {
+				range.chunk.cancel(true);
+			}
 		}
 
 		if (logger != null) logger.debug("total results returned: " + results.size());
@@ -573,6 +1180,37 @@ public class ReaxysAPI {
 		}
 		return results;
 	}
+	
+	
+	/**
+	 * choose a random sample of distinct numbers, with Floyd's algorithm.  It takes one
+	 * random number per sample, however close the sample size is to the population.
+	 * 
+	 * @param rand source of randomness
+	 * @param population numbers are chosen from 0 to population - 1
+	 * @param size number of samples, at most the population
+	 * @return the sample, sorted
+	 */
+	static int[] sample(final Random rand, final int population, final int size) {
+		
+		final LongIntMap chosen = new LongIntMap(size);
+		final int[] sample = new int[size];
+		int n = 0;
+		
+		for (int j = population - size; j < population; j++) {
+			
+			final int t = rand.nextInt(j + 1);
+			final int pick = chosen.putIfAbsent(t, 0) < 0 ? t : j;
+			
+			if (pick == j) {
+				chosen.put(j, 0);
+			}
+			sample[n++] = pick;
+		}
+		
+		Arrays.sort(sample);
+		return sample;
+	}
 
 	/**
      * add the corresponding structures to a data set. Creates a list of identifiers,
@@ -586,7 +1224,7 @@ public class ReaxysAPI {
      * 
      * @throws Exception
      */
-	List<HashMap<String, String>> addStructures(List<HashMap<String, String>> results, 
+	List<ResultRecord> addStructures(List<ResultRecord> results, 
             final boolean v3) throws Exception {
 
 	    // Check if we have a reaction, otherwise default to compound
@@ -596,7 +1234,7 @@ public class ReaxysAPI {
 	    final String rxidLabel = ReaxysFieldTypes.getLabel("RX.ID");
 
 	    boolean haveRxid = false;
-	    for (HashMap<String, String> result : results) {
+	    for (ResultRecord result : results) {
 	        final String rxid = result.get(rxidLabel);
 	        if (rxid != null) {
 	            haveRxid = true;
@@ -619,7 +1257,8 @@ public class ReaxysAPI {
 	 * searches them, and then matches them to the data. Similar to a left-outer-join.
 	 * 
 	 * this performs a series of "batch" xrn searches. The batches are created to avoid
-	 * creating one very long query that can crash the server.
+	 * creating one very long query that can crash the server, and with prefetching several
+	 * are searched at the same time, see {@link StructureFetcher}.
 	 * 
 	 * @param results   data results of normal serach to be augmented.
 	 * @param v3   true if v3000 structures should be retrieved
@@ -627,7 +1266,7 @@ public class ReaxysAPI {
 	 * 
 	 * @throws Exception
 	 */
-	private List<HashMap<String, String>> addStructures(List<HashMap<String, String>> results, 
+	private List<ResultRecord> addStructures(List<ResultRecord> results, 
 			final boolean v3, ReaxysDataTypes dataType) throws Exception {
 		
 		if (exec != null) exec.getProgressMonitor().setMessage("getting list of structures to add");
@@ -636,173 +1275,85 @@ public class ReaxysAPI {
 		
 		// either of these could be used for structure mapping
 		final String xrnLabel = ReaxysFieldTypes.getLabel("IDE.XRN");
-		final String mrnLabel = ReaxysFieldTypes.getLabel("DAT.MRN");
 		// And this one for the Reaction ID
 		final String rxidLabel = ReaxysFieldTypes.getLabel("RX.ID");
 		
-		MemoryBackedList<HashMap<String, String>> structureData = new MemoryBackedList<HashMap<String, String>>();
-		
-		/*
-		 * max XRN count for query this is the size limit, in units of
-		 * XRN numbers.  each one is about 10 digits
-		 */
-		final int maxQueryLength = 256; 
-		
-		// a unique set
-		final HashSet<String> uniqueIDSet = new HashSet<String>();
-		
-		if (dataType == ReaxysDataTypes.RY) { 
-		    for (HashMap<String, String> result : results) {
-		        final String rxid = result.get(rxidLabel);
-		        if (rxid != null) {
-		            uniqueIDSet.add(rxid);
-		        }
-		    }
-		} else {
-		    for (HashMap<String, String> result : results) {
-		        final String mrn = result.get(mrnLabel);
-
-		        if (mrn != null) {
-		            uniqueIDSet.add(mrn);
-		        } else {
-		            final String xrn = result.get(xrnLabel);
-		            if (xrn != null) {
-		                uniqueIDSet.add(xrn);
-		            }
-		        }
-		    }
-		}
-
-		// array so that we can access by index
-		final String[] uniqueIDArray = uniqueIDSet.toArray(new String[uniqueIDSet.size()]);
-		uniqueIDSet.clear(); // reclaim immediately in case memory is an issue;
+		// the identifier of the structure and the structure field
+		final String idLabel = dataType == ReaxysDataTypes.RY ? rxidLabel : xrnLabel;
+		final String molLabel = dataType == ReaxysDataTypes.RY ? rylabel : slabel;
 		
-		String idQueryStart = "IDE.XRN=";
-		if (dataType == ReaxysDataTypes.RY) {
-		    idQueryStart = "RX.ID=";
-		}
+		// the structures of all records may have been requested while they were retrieved,
+		// unless the structure type was guessed wrong
+		StructureFetcher fetcher = structureFetcher;
+		structureFetcher = null;
 		
-		int counter = 0;
-		while (counter < uniqueIDArray.length ) {
-			
-			String ideQuery= idQueryStart;
-			// break the query into smaller sections in case a very large string causes memory
-			// problems
-			int count = 0;// internal loop counter
-			for (; counter <uniqueIDArray.length; counter++ ) {
-				count++;
-				ideQuery += uniqueIDArray[counter] + ";";
-				if (count > maxQueryLength) {
-					counter++; // break will bypass increment
-					break;
-				}
+		if (fetcher == null || fetcher.dataType != dataType || fetcher.v3 != v3) {
+			if (fetcher != null) {
+				fetcher.cancel();
 			}
-
-			ideQuery = ideQuery.substring(0, ideQuery.length() -1);
-			
-			// To make it transparent that we use the dataType from the method argument, create dummy variable
-			ReaxysDataTypes queryDataType = dataType;
-			
-			final List<HashMap<String, String>> temp =  new ReaxysAPI(this)
-				.getFactComplete("", "", ideQuery, queryDataType, 1, Integer.MAX_VALUE, v3, null);
-			
-			if (temp.size() > 0) {
-				structureData.addAll(temp);
-			}
-			((MemoryBackedList<HashMap<String, String>>)temp).close();
+			fetcher = new StructureFetcher(this, dataType, v3);
+			fetcher.request(results);
 		}
 		
+		final MemoryBackedList<ResultRecord> structureData = fetcher.finish();
+		incomplete |= !fetcher.isComplete();
+		
 		if (exec != null) exec.getProgressMonitor().setMessage("joining structures to data");
 		
-		final List<HashMap<String, String>> updatedResults = new MemoryBackedList<HashMap<String, String>>();
+		final List<ResultRecord> updatedResults = new MemoryBackedList<ResultRecord>(new RecordCodec());
 		
-		// a double loop over these files is slow, so index 
-		final HashMap<String, Integer> structureIndex = new HashMap<String, Integer>();
+		/*
+		 * a double loop over these files is slow, so index the structures by identifier.
+		 * Structures are read once while indexing and kept in memory up to a budget, so
+		 * the join does not read a structure again for every row that has it.
+		 */
+		final int fetched = structureData.size();
+		final LongIntMap structureIndex = new LongIntMap(fetched);
+		final ResultRecord[] structures = new ResultRecord[fetched];
+		long structureBytes = 0;
 		
-		if (dataType == ReaxysDataTypes.RY) {
-		    for (int i = 0; i < structureData.size(); i++) {
-		        final HashMap<String, String> v = structureData.get(i);
-		        final String rx = v.get(rxidLabel);
-		        final String mol = v.get(rylabel);
-		        if (rx != null) {
-		            structureIndex.put(rx, i);
-		        } else if (mol != null) {
-		            structureIndex.put(mol, i);
-		        }
-		    }
-		    // end of indexing
-
-		    // add the structures to the results map.  This is an inner join.
-		    for (final HashMap<String, String> result : results) {
-
-		        final String rxid = result.get(rxidLabel);
-
-		        if (rxid != null) {
-		            final Integer index = structureIndex.get(rxid);
-
-		            if (index != null) {
-		                final HashMap<String, String> struct = structureData.get(index);
-
-		                if (struct != null) {
-
-		                    final String rx = struct.get(rxidLabel);
-		                    final String mol = struct.get(rylabel);
-
-		                    if (rx != null & mol != null && rx.equals(rxid)) {
-		                        result.putAll(struct);
-		                    }
-		                }
-		            }
-		        }
-
-		        updatedResults.add(result);
-
-		    }
-		} else { // We have compound structures
-            for (int i = 0; i < structureData.size(); i++) {
-                final HashMap<String, String> v = structureData.get(i);
-                final String xrn = v.get(xrnLabel);
-                final String mol = v.get(slabel);
-                if (xrn != null) {
-                    structureIndex.put(xrn, i);
-                } else if (mol != null) {
-                    structureIndex.put(mol, i);
-                }
-            }
-            // end of indexing
-
-            // add the structures to the results map.  This is an inner join.
-            for (final HashMap<String, String> result : results) {
-
-                String mrn = result.get(mrnLabel);
-                final String rxrn = result.get(xrnLabel);
-
-                if (mrn == null && rxrn != null) {
-                    mrn = rxrn;
-                }
-
-                if (mrn != null) {
-                    final Integer index = structureIndex.get(mrn);
-
-                    if (index != null) {
-                        final HashMap<String, String> struct = structureData.get(index);
-
-                        if (struct != null) {
+		for (int i = 0; i < fetched; i++) {
+			
+			final ResultRecord v = structureData.get(i);
+			final long id = parseId(v.get(idLabel));
+			
+			if (id >= 0 && v.getStored(molLabel) != null) {
+				structureIndex.put(id, i);
+				
+				if (structureBytes < JOIN_MEMORY_BYTES) {
+					structures[i] = v;
+					structureBytes += v.estimateBytes();
+				}
+			}
+		}
+		// end of indexing
+		cacheStructures(fetcher, structureIndex, structures, structureData);
 
-                            final String xrn = struct.get(xrnLabel);
-                            final String mol = struct.get(slabel);
+		// add the structures to the results map.  This is an inner join.
+		for (final ResultRecord result : results) {
 
-                            if (xrn != null & mol != null && xrn.equals(mrn)) {
-                                result.putAll(struct);
-                            }
-                        }
-                    }
-                }
+			final long id = fetcher.structureId(result);
 
-                updatedResults.add(result);
+			if (id >= 0) {
+				
+				final int index = structureIndex.get(id);
+				ResultRecord struct = null;
+				
+				if (index >= 0) {
+					struct = structures[index] != null ? structures[index] : structureData.get(index);
+				} else {
+					final int cached = fetcher.cachedIndex.get(id);
+					if (cached >= 0 && fetcher.cachedStructures.get(cached).getStored(molLabel) != null) {
+						struct = fetcher.cachedStructures.get(cached);
+					}
+				}
 
-            }
+				if (struct != null) {
+					result.putAll(struct);
+				}
+			}
 
+			updatedResults.add(result);
 		}
 
 		results.clear();
@@ -811,12 +1362,71 @@ public class ReaxysAPI {
 		return updatedResults;
 	}
 	
+	/**
+	 * parse a numeric identifier like an XRN or RX.ID
+	 * 
+	 * @param id identifier, may be null
+	 * @return the identifier, or -1 if it is not a number
+	 */
+	static long parseId(final String id) {
+		
+		if (id == null) {
+			return -1;
+		}
+		
+		final String trimmed = id.trim();
+		if (trimmed.length() == 0 || trimmed.length() > 18) {
+			return -1;
+		}
+		
+		long value = 0;
+		for (int i = 0; i < trimmed.length(); i++) {
+			final char c = trimmed.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = 10 * value + (c - '0');
+		}
+		return value;
+	}
+	
+	/**
+	 * add the structures retrieved by addStructures to the structure cache
+	 * 
+	 * @param fetcher fetcher that searched the structures
+	 * @param structureIndex index of the retrieved structures by identifier
+	 * @param structures retrieved structures that are in memory, by index
+	 * @param structureData retrieved structures
+	 */
+	private void cacheStructures(final StructureFetcher fetcher, final LongIntMap structureIndex, 
+			final ResultRecord[] structures, final List<ResultRecord> structureData) {
+		
+		if (structureCache == null) {
+			return;
+		}
+		
+		for (int i = 0; i < fetcher.getSearchCount(); i++) {
+			
+			final long id = fetcher.getSearchID(i);
+			final int index = structureIndex.get(id);
+			
+			if (index >= 0) {
+				final ResultRecord structure = structures[index] != null 
+						? structures[index] : structureData.get(index);
+				structureCache.put(fetcher.dataType, fetcher.v3, Long.toString(id), structure);
+			} else if (fetcher.isComplete()) {
+				// identifiers without a structure are only cached if no search failed
+				structureCache.put(fetcher.dataType, fetcher.v3, Long.toString(id), null);
+			}
+		}
+	}
+	
 	/**
 	 * adjust SDFiles v2, v3 and RD files that are compressed
 	 * 
 	 * @param data
 	 */
-	void fixSDF(List<HashMap<String, String>> data ) {
+	void fixSDF(List<ResultRecord> data ) {
 		
 		/*
 		 * fix sdfile data, if present
@@ -826,7 +1436,7 @@ public class ReaxysAPI {
 		final String rdTag = "Reaction ID (RX.ID)";
 	
 			// fix YY.STR to be sdfile by putting on header and end.
-		for (HashMap<String, String> rowData : data) {
+		for (ResultRecord rowData : data) {
 			
 			for (final String key : rowData.keySet()) {
 				
@@ -841,17 +1451,20 @@ public class ReaxysAPI {
 					rowData.put(sdfileTag, sdfile);
 				}
 
-				// fix RY.RXNFILE OR RY.STR by uncompressing
+				// fix RY.RXNFILE OR RY.STR by uncompressing, now or when read
 				if (NodeModelUtilities.isReactionTag(key)) {
-					String rdfile  = rowData.get(key);
-					rdfile = decompress(rdfile);
+					final String rdfile  = rowData.getStored(key);
 					final String sdId = rowData.get(rdTag);
-					// (?s) allows matching with newlines in the string.
- 					if (rdfile.matches("(?s)^[$]RXN[^\n]*\n\n.*") && sdId != null) {
-						rdfile = rdfile.replaceFirst("\n", "\n" + sdId);
+
+					if (rdfile == null || CompressedPayload.isCompressed(rdfile)) {
+						continue;
 					}
 
-					rowData.put(key, rdfile);
+					if (lazyPayloads) {
+						rowData.put(key, CompressedPayload.wrap(rdfile, sdId));
+					} else {
+						rowData.put(key, CompressedPayload.reaction(decompress(rdfile), sdId));
+					}
 				}
 			}
 		}
@@ -864,22 +1477,7 @@ public class ReaxysAPI {
 	 * @return inflated string, or original string if it was not compressed
 	 */
 	String decompress(final String compressed) {
-
-		try {
-			final byte[] un64 = DatatypeConverter.parseBase64Binary(compressed);
-			final ByteArrayOutputStream inflatedStream = new ByteArrayOutputStream();
-			final Inflater decompresser = new Inflater(false);
-			final InflaterOutputStream inflaterOutputStream = new InflaterOutputStream(inflatedStream, decompresser);
-			inflaterOutputStream.write(un64);
-			inflaterOutputStream.close();
-			decompresser.end();
-			return new String(inflatedStream.toByteArray(), "UTF-8");
-			
-		} catch(IOException e) {
-			if (logger != null) logger.info("decompression error: " + e);
-		}
-		// maybe this failed because it wan't really compressed, so return original string
-		return compressed;
+		return CompressedPayload.inflate(compressed);
 	}
 	
 }
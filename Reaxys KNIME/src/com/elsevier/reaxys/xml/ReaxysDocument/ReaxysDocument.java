@@ -411,6 +411,17 @@ public class ReaxysDocument extends ReaxysAuthentication {
 		return getIO().request(doc, getUrl());
 	}
 	
+	/**
+	 * Send an XML query to the server, and read the response as it arrives
+	 * 
+	 * @param doc XML query or command
+	 * @param handler reads the response stream
+	 * @return result of the handler, or null on error
+	 */
+	public <T> T request(Document doc, IO.ResponseHandler<T> handler) {
+		return getIO().request(doc, getUrl(), handler);
+	}
+	
 	/**
 	 * set the debug flag for IO operations
 	 * 
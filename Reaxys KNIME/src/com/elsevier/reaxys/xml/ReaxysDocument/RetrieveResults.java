@@ -1,9 +1,15 @@
 package com.elsevier.reaxys.xml.ReaxysDocument;
 
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathFactory;
 import javax.xml.xpath.XPathExpression;
@@ -17,6 +23,7 @@ import org.w3c.dom.NodeList;
 import com.elsevier.reaxys.Cache;
 import com.elsevier.reaxys.ReaxysDataTypes;
 import com.elsevier.reaxys.ReaxysFieldTypes;
+import com.elsevier.reaxys.ResultRecord;
 
 import com.elsevier.reaxys.xml.ReaxysDocument.ReaxysDocument;
 
@@ -50,7 +57,7 @@ public class RetrieveResults extends ReaxysDocument {
 	/*
 	 * separates multiple values in a field.  This could be a multi-character string
 	 */
-	final static String MULITPLE_VALUE_SEPARATOR = "|";
+	public final static String MULITPLE_VALUE_SEPARATOR = "|";
 	/*
 	 * if this is "citations" (plural) it will return all citations for the record as a single string
 	 * in without the "s" it returns the fielded data for the citation.
@@ -70,6 +77,111 @@ public class RetrieveResults extends ReaxysDocument {
 	 */
 	final Cache<String, String> resultCache = new Cache<String, String>();
 	
+	/*
+	 * factory for the streaming parser. Configured once, and creating readers is thread safe.
+	 */
+	static final XMLInputFactory xmlInputFactory = createInputFactory();
+	
+	/*
+	 * record categories, the plural form is the context and the container of the records
+	 */
+	final static String[] CATEGORIES = {"citations", "substances", "dpitems", "reactions", "tgitems"};
+	
+	
+	/**
+	 * the records of a response, with the number of facts that were returned for each record
+	 * of the range that was requested, in order.  Records without facts are counted too, even
+	 * when they are dropped from the list, so the counts can be matched to the range.
+	 * 
+	 * For each record the rows it gave in the list are kept, and the parent data that was
+	 * copied into each of them, so facts that are retrieved later without the parent can be
+	 * joined to it.
+	 */
+	public static class Page extends ArrayList<ResultRecord> {
+		
+		private static final long serialVersionUID = -3121807741531428837L;
+		
+		private int[] facts = new int[16];
+		private int[] rows = new int[16];
+		private ResultRecord[] parents = new ResultRecord[16];
+		private int records = 0;
+		
+		/**
+		 * @return number of records in the response, with or without facts
+		 */
+		public int getRecords() {
+			return records;
+		}
+		
+		/**
+		 * @param record index of a record in the response
+		 * @return number of facts returned for the record
+		 */
+		public int getFacts(final int record) {
+			return facts[record];
+		}
+		
+		/**
+		 * @param record index of a record in the response
+		 * @return number of rows of the record in the list, which follow those of the
+		 * records before it
+		 */
+		public int getRows(final int record) {
+			return rows[record];
+		}
+		
+		/**
+		 * @param record index of a record in the response
+		 * @return the parent data of the record, empty if it was not retrieved, or null if
+		 * the parent is not copied into the rows of the record
+		 */
+		public ResultRecord getParent(final int record) {
+			return parents[record];
+		}
+		
+		@Override
+		public void clear() {
+			super.clear();
+			records = 0;
+		}
+		
+		void addRecord(final int recordFacts, final int recordRows, final ResultRecord parent) {
+			
+			if (records == facts.length) {
+				facts = Arrays.copyOf(facts, 2 * records);
+				rows = Arrays.copyOf(rows, 2 * records);
+				parents = Arrays.copyOf(parents, 2 * records);
+			}
+			facts[records] = recordFacts;
+			rows[records] = recordRows;
+			parents[records++] = parent;
+		}
+		
+		/**
+		 * remove the rows of a record from the list; the record is still counted
+		 */
+		void dropRows(final int record) {
+			
+			int first = 0;
+			for (int i = 0; i < record; i++) {
+				first += rows[i];
+			}
+			removeRange(first, first + rows[record]);
+			rows[record] = 0;
+		}
+	}
+	
+	/**
+	 * get the canonical instance of a value.  Responses of one result set may be parsed on
+	 * several threads at once, which the cache allows.
+	 * 
+	 * @param value value to canonicalize
+	 * @return canonical value
+	 */
+	String canon(final String value) {
+		return resultCache.canon(value);
+	}
+	
 	/**
 	 * return number of hits from this search
 	 * @return count of hits
@@ -177,7 +289,7 @@ public class RetrieveResults extends ReaxysDocument {
 	
 	/**
 	 * Create an XML document to retrieve the desired values from the Reaxys hitset. 
-	 * There is a limit of 100 values for first-last request for facts.
+	 * The number of records in a request is limited to 1000.
 	 * 
 	 * @param value  value to return from Reaxys
 	 * @param type  type of data
@@ -188,8 +300,26 @@ public class RetrieveResults extends ReaxysDocument {
 	 */
 	public Document retrieveValues(final String value,
 			final int first, final int last) {
+		return retrieveValues(value, first, last, true);
+	}
 
-		assert  (last - first) < 100: "Number of values requested greater than 100";
+
+	/**
+	 * Create an XML document to retrieve the desired values from the Reaxys hitset, optionally
+	 * without the parent data.  The parent is the associated field group that is a main data
+	 * type, like the IDE of substance facts or the RX of reaction details, which is the same
+	 * for every chunk of facts of a record.  Other associated groups are always retrieved.
+	 * 
+	 * @param value  value to return from Reaxys
+	 * @param first - index of first value to retrieve
+	 * @param last  - index of last value to retrieve
+	 * @param parents false to leave out the parent data, which has been retrieved before
+	 * @return Document with query to retrieve values.
+	 */
+	public Document retrieveValues(final String value,
+			final int first, final int last, final boolean parents) {
+
+		assert  (last - first) < 1000: "Number of values requested greater than 1000";
 
 		final Document retrievalQuery = createRetrieveDocument();
 		
@@ -227,15 +357,22 @@ public class RetrieveResults extends ReaxysDocument {
 			
 			if (extra != null) {
 				for (String dataType : extra) {
-					createElement(retrievalQuery, "select_list", "select_item");
 					/*
 					 * these are 'main data types', not facts.
 					 */
+					boolean parent = false;
 					for (String tag : topLevel) {
 						if (dataType.equals(tag)) {
 							suffix = "";
+							parent = true;
 						}
 					}
+					
+					if (parent && !parents) {
+						continue;
+					}
+					
+					createElement(retrievalQuery, "select_list", "select_item");
 
 					setTextNode(retrievalQuery, "select_item", dataType + suffix);
 				}
@@ -276,10 +413,9 @@ public class RetrieveResults extends ReaxysDocument {
 	 */
 	final String findResultCategory(Document document) {
 		
-		final String[] categories = {"citations", "substances", "dpitems", "reactions", "tgitems"};
 		final String context = getString("context", document);
 		
-		for (String category : categories) {
+		for (String category : CATEGORIES) {
 			if (context != null && context.equals(category)) {
 				// trim off final 's' for individual records.
 				return category.substring(0, category.length() - 1);
@@ -332,9 +468,9 @@ public class RetrieveResults extends ReaxysDocument {
 	 * @param element   document
 	 * @return value    ArrayList of Hashmaps
 	 */
-	final public  ArrayList<HashMap<String, String>> getResults(Document doc) {
+	final public Page getResults(Document doc) {
 
-		final ArrayList<HashMap<String, String>> result = new ArrayList<HashMap<String, String>>();
+		final Page result = new Page();
 		/**
 		 * if true, then the parent record is duplicated and added the subsequent data sections
 		 * in this category.  e.g. the reaction details are combined with the parent reaction
@@ -364,12 +500,17 @@ public class RetrieveResults extends ReaxysDocument {
 		 */
 		for (int j = 0; j < categoryList.getLength(); j++) {  // each item
 			final NodeList dataList = categoryList.item(j).getChildNodes();
-			final HashMap<String, String> mainMap = new HashMap<String, String>();
+			final ResultRecord mainMap = new ResultRecord();
 			int main = getFirstTopLevelElement(categoryList.item(j)); // the the main item here
-			if (dataList.item(main).equals("RY")) duplicateParent = false;
-			parseData(dataList.item(main), mainMap);
+			// facts retrieved without their parent have no main item
+			if (main >= 0) {
+				if (dataList.item(main).equals("RY")) duplicateParent = false;
+				parseData(dataList.item(main), mainMap);
+			}
+			final int firstRow = result.size();
 
 			boolean addedMore = false; // flag to note there is more than one data section in this category
+			int facts = 0;
 
 			// start after main section.
 			for (int i = 0; i < dataList.getLength(); i++) {
@@ -379,7 +520,7 @@ public class RetrieveResults extends ReaxysDocument {
 					continue;
 				}
 
-				HashMap<String, String> map = new HashMap<String, String>();
+				ResultRecord map = new ResultRecord();
 				/*
 				 * under here there may be several associated items grouped together, e.g.
 				 * rxn then several other data items associated with that RXN.
@@ -393,6 +534,7 @@ public class RetrieveResults extends ReaxysDocument {
 
 				parseData(currentNode, map);
 				addedMore = true;
+				facts++;
 				/*
 				 * sometimes data is mapped many-to-one (reactions)
 				 * sometimes all subrecords are combined (citations)
@@ -410,6 +552,7 @@ public class RetrieveResults extends ReaxysDocument {
 					+ " addedMore " + addedMore + " duplicateParent " + duplicateParent 
 					+ " lookingForFacts " + lookingForFacts);
 			} */
+			result.addRecord(facts, result.size() - firstRow, duplicateParent ? mainMap : null);
 		}
 		
 		return result;
@@ -422,7 +565,7 @@ public class RetrieveResults extends ReaxysDocument {
 	 * @param map hashmap with tag/value pairs, which will be augmented with more pairs
 	 * @return the hash map, with additional pairs
 	 */
-	final HashMap<String, String> parseData(final Node root, final HashMap<String, String> map) {
+	final ResultRecord parseData(final Node root, final ResultRecord map) {
 		
 		final NodeList children = root.getChildNodes();
 		if (children.getLength() == 0) return map;
@@ -471,14 +614,328 @@ public class RetrieveResults extends ReaxysDocument {
 					    if (rxid == null) {
 					        rxid = "";
                         }
-					    map.put(ReaxysFieldTypes.getLabel("RX.ID").intern(), resultCache.canon(rxid));
+					    map.put(ReaxysFieldTypes.getLabel("RX.ID").intern(), canon(rxid));
 					}
 
-					map.put(name.intern(), resultCache.canon(value));
+					map.put(name.intern(), canon(value));
 				}
 			}
 		}
 
 		return map;
 	}
+	
+	
+	/**
+	 * create the factory for streaming parsers.  DTDs are not read, as in the DOM parser which
+	 * does not load the external DTD.
+	 * 
+	 * @return input factory
+	 */
+	static XMLInputFactory createInputFactory() {
+		
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+		return factory;
+	}
+	
+	
+	/**
+	 * get the results from a response with a streaming parser.  This gives the same records as
+	 * {@link #getResults(Document)} without building a DOM of the response; only the data of one
+	 * record at a time is held while it is parsed.
+	 * 
+	 * The records are the category elements (reaction, substance, ...) of the context of the
+	 * response (reactions, substances, ...).  The category is taken from the context element, or
+	 * from the container of the records if that comes first.
+	 * 
+	 * @param response reader with the XML response
+	 * @return list of records
+	 * @throws XMLStreamException if the response is not valid XML
+	 */
+	final public Page getResults(final Reader response)
+			throws XMLStreamException {
+		
+		final Page result = new Page();
+		final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(response);
+		
+		String context = null;     // text of the context element
+		String category = null;    // record element name, the context without the final 's'
+		boolean lookingForFacts = false;
+		
+		try {
+			
+			while (reader.hasNext()) {
+				
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				
+				final String name = reader.getLocalName();
+				
+				if (name.equals("context")) {
+					context = reader.getElementText().trim();
+				}
+				
+				// the response repeats the request; facts have pattern XXX(N1,N2)
+				if (name.equals("select_item") && reader.getElementText().contains("(")) {
+					lookingForFacts = true;
+				}
+				
+				if (category != null && name.equals(category)) {
+					parseRecord(reader, category, result);
+					continue;
+				}
+				
+				// the category is known from the context, or from the container of the records
+				if (category == null) {
+					for (final String c : CATEGORIES) {
+						if (name.equals(c) || (name.equals("context") && context.equals(c))) {
+							category = c.substring(0, c.length() - 1);
+						}
+					}
+				}
+			}
+			
+		} finally {
+			reader.close();
+		}
+		
+		// empty data set, or records that are not of the context of the response
+		if (context == null || category == null || !context.equals(category + "s")) {
+			result.clear();
+		}
+		
+		// if no facts were found, and I was looking for them, don't add this data
+		if (lookingForFacts) {
+			for (int i = result.getRecords() - 1; i >= 0; i--) {
+				if (result.getFacts(i) == 0) {
+					result.dropRows(i);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * parse one record, from its start element to its end element.  The data of each section
+	 * of the record is collected first, because the main section is not necessarily first,
+	 * and then combined into maps in the same way as {@link #getResults(Document)}.
+	 * 
+	 * A record with only the main section is always added, and is last in the list; the caller
+	 * drops it if facts were requested.
+	 * 
+	 * @param reader parser positioned at the start of the record
+	 * @param category record category
+	 * @param result list the records are added to, which counts the record
+	 * @return number of sections besides the main section, 0 if the record had only the main section
+	 * @throws XMLStreamException on parse error
+	 */
+	int parseRecord(final XMLStreamReader reader, final String category,
+			final Page result) throws XMLStreamException {
+		
+		final boolean duplicateParent = !(category.equals("citation") || category.equals("dpitem"));
+		
+		final List<String> sectionNames = new ArrayList<String>();
+		final List<List<String[]>> sections = new ArrayList<List<String[]>>();
+		
+		// read the sections of the record
+		while (reader.hasNext()) {
+			
+			final int event = reader.next();
+			
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+			
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				sectionNames.add(reader.getLocalName());
+				final List<String[]> values = new ArrayList<String[]>();
+				parseData(reader, values);
+				sections.add(values);
+			}
+		}
+		
+		// the main section is the first top level data type
+		int main = -1;
+		for (int i = 0; i < sectionNames.size() && main < 0; i++) {
+			for (final String t : topLevel) {
+				if (sectionNames.get(i).equals(t)) {
+					main = i;
+					break;
+				}
+			}
+		}
+		
+		final ResultRecord mainMap = new ResultRecord();
+		if (main >= 0) {
+			putValues(sections.get(main), mainMap);
+		}
+		final int firstRow = result.size();
+		
+		int facts = 0;
+		
+		for (int i = 0; i < sections.size(); i++) {
+			
+			if (i == main) {
+				continue;
+			}
+			
+			final ResultRecord map;
+			if (duplicateParent) {
+				map = new ResultRecord(mainMap);
+			} else {
+				map = mainMap;
+			}
+			
+			putValues(sections.get(i), map);
+			facts++;
+			
+			if (duplicateParent) {
+				result.add(map);
+			}
+		}
+		
+		if (!duplicateParent || facts == 0) {
+			result.add(mainMap);
+		}
+		
+		result.addRecord(facts, result.size() - firstRow, duplicateParent ? mainMap : null);
+		return facts;
+	}
+	
+	
+	/**
+	 * streaming version of {@link #parseData(Node, ResultRecord)}.  Reads the children of the
+	 * current element up to its end element, and collects the label/value pairs in the order
+	 * that parseData would put them in a map.
+	 * 
+	 * Each pair is {label, value}, or {label, value, null} for a value that replaces any
+	 * value already in the map.
+	 * 
+	 * @param reader parser positioned at a start element
+	 * @param values list the pairs are added to
+	 * @throws XMLStreamException on parse error
+	 */
+	void parseData(final XMLStreamReader reader, final List<String[]> values) throws XMLStreamException {
+		
+		while (reader.hasNext()) {
+			
+			final int event = reader.next();
+			
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				return;
+			}
+			
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			
+			final String name = ReaxysFieldTypes.getLabel(reader.getLocalName().trim());
+			
+			/*
+			 * citations, and RMC fields with subfields DAT01, DAT02, IDE01 etc.
+			 */
+			if (name.equals("citation") || columnMatcher.matcher(name).matches()) {
+				parseData(reader, values);
+				continue;
+			}
+			
+			// RY context: the RX.ID is an attribute of the RY.STR element
+			String rxid = null;
+			if (name.contains("RY.STR")) {
+				rxid = reader.getAttributeValue(null, "rn");
+				if (rxid == null) {
+					rxid = "";
+				}
+			}
+			
+			// all text of the element and its children, like getTextContent
+			final StringBuilder text = new StringBuilder();
+			boolean hasChildNodes = false;
+			int depth = 1;
+			
+			while (depth > 0) {
+				
+				switch (reader.next()) {
+				
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					hasChildNodes = true;
+					break;
+					
+				case XMLStreamConstants.END_ELEMENT:
+					depth--;
+					break;
+					
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					hasChildNodes = true;
+					break;
+					
+				default:
+					hasChildNodes = true;
+				}
+			}
+			
+			// empty elements are skipped
+			if (!hasChildNodes) {
+				continue;
+			}
+			
+			// trim trailing white space only
+			int end = text.length();
+			while (end > 0 && isSpace(text.charAt(end - 1))) {
+				end--;
+			}
+			
+			if (rxid != null) {
+				values.add(new String[] {ReaxysFieldTypes.getLabel("RX.ID"), rxid, null});
+			}
+			values.add(new String[] {name, text.substring(0, end)});
+		}
+	}
+	
+	
+	/**
+	 * white space as matched by \s in regular expressions
+	 * 
+	 * @param c character
+	 * @return true if c is white space
+	 */
+	static boolean isSpace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
+	
+	/**
+	 * put label/value pairs from {@link #parseData(XMLStreamReader, List)} into a map.  Multiple 
+	 * values of the same field are concatenated, as in parseData, except for the IDE values so that 
+	 * the XRN and other numbers are not repeated.
+	 * 
+	 * @param values label/value pairs
+	 * @param map map to add the values to
+	 */
+	void putValues(final List<String[]> values, final ResultRecord map) {
+		
+		for (final String[] pair : values) {
+			
+			final String name = pair[0];
+			String value = pair[1];
+			
+			if (pair.length == 2 && map.containsKey(name) && !name.contains("Reaxys Registry Number") 
+					&& !map.get(name).equals(value)) {
+				value = map.get(name) + MULITPLE_VALUE_SEPARATOR + value;
+			}
+			
+			map.put(name.intern(), canon(value));
+		}
+	}
 }
\ No newline at end of file
@@ -12,12 +12,12 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
 
 import com.elsevier.reaxys.ReaxysDataTypes;
+import com.elsevier.reaxys.ResultRecord;
 import com.elsevier.reaxys.xml.ReaxysDocument.ReaxysDocument;
 
 /**
@@ -194,7 +194,7 @@ public class ReaxysQuery {
 			data = args;
 		}
 		
-		final List<HashMap<String, String>> result = rq.makeQuery(data[0], data[1]);
+		final List<ResultRecord> result = rq.makeQuery(data[0], data[1]);
 		rq.writeResult(result);
 		result.clear();
 
@@ -218,7 +218,7 @@ public class ReaxysQuery {
 	 * @return list of hashmaps
 	 * @throws Exception on error
 	 */
-	public List<HashMap<String, String>>makeQuery(final String fact, final String query) throws Exception {
+	public List<ResultRecord>makeQuery(final String fact, final String query) throws Exception {
 				
 		final ReaxysDataTypes rdt = ReaxysDataTypes.getByName(fact);
 		
@@ -230,7 +230,7 @@ public class ReaxysQuery {
 		int max = Integer.valueOf(limit);
 		int min = Integer.valueOf(startRecord);
 		
-		final List<HashMap<String, String>> result = api.getFact(
+		final List<ResultRecord> result = api.getFact(
 				"",  // id field for search
 				"",  // value for id field
 				query, 
@@ -252,7 +252,7 @@ public class ReaxysQuery {
 	 * @param result - output of query.
 	 * @throws IOException on io error
 	 */
-	void writeResult(final List<HashMap<String, String>> result) throws IOException {
+	void writeResult(final List<ResultRecord> result) throws IOException {
 		
 		final Set<String> columns = ReaxysAPI.keySet(result);
 		final BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(System.out));
@@ -272,7 +272,7 @@ public class ReaxysQuery {
 		bw.write(EOL);
 		
 		// write data
-		for (final HashMap<String, String> map : result) {
+		for (final ResultRecord map : result) {
 			cols = 0;
 			
 			for (final String header : columns) {
@@ -0,0 +1,474 @@
+package com.elsevier.reaxys.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.knime.core.node.NodeLogger;
+
+import com.elsevier.reaxys.ReaxysDataTypes;
+import com.elsevier.reaxys.ResultRecord;
+import com.elsevier.reaxys.memoryBackedList.MemoryBackedList;
+import com.elsevier.reaxys.memoryBackedList.RecordCodec;
+
+/**
+ * persistent cache of query results, so that workflows that are rerun with the same
+ * identifiers do not need to ask Reaxys again.  Each result is stored in its own file in
+ * the cache directory, named by a hash of the query and of the server and account it was
+ * sent with, so that workflows sharing a directory only get results they could retrieve.
+ *
+ * Entries older than the lifetime are ignored and deleted.  When the files in the directory
+ * grow beyond the size limit the least recently used entries are deleted.
+ */
+public class ResponseCache {
+
+	/* file name extension of cache entries */
+	static final String SUFFIX = ".rxc";
+	/* encoding of keys for hashing */
+	static final String KEY_ENCODING = "UTF-8";
+	/* fraction of the size limit the cache is reduced to when it is full */
+	static final double LOW_WATER = 0.9;
+
+	private final File directory;
+	private final long lifetimeMs;
+	private final long maxBytes;
+	private long totalBytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// the logger instance
+	private static NodeLogger logger = null;
+
+
+	/**
+	 * a cached query result
+	 */
+	public static class Entry {
+
+		/* total number of results of the query, not only the ones returned */
+		public final int resultCount;
+		public final List<ResultRecord> results;
+
+		Entry(final int resultCount, final List<ResultRecord> results) {
+			this.resultCount = resultCount;
+			this.results = results;
+		}
+	}
+
+
+	/**
+	 * open a cache directory, creating it if needed.
+	 *
+	 * @param directory directory for the cache files
+	 * @param lifetimeMs time after which entries are no longer used, in milliseconds
+	 * @param maxBytes maximum size of all of the entries, in bytes
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ResponseCache(final File directory, final long lifetimeMs, final long maxBytes) throws IOException {
+
+		try {
+			logger = NodeLogger.getLogger(ResponseCache.class);
+		} catch (Throwable er) {
+			// We are not running in KNIME
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("can't create cache directory " + directory);
+		}
+
+		this.directory = directory;
+		this.lifetimeMs = lifetimeMs;
+		this.maxBytes = maxBytes;
+
+		for (final File f : entries()) {
+			totalBytes += f.length();
+		}
+	}
+
+
+	/**
+	 * identify the server and the account of a session for the cache keys.  The credentials
+	 * are hashed, so they are not kept in the keys.
+	 *
+	 * @param url Reaxys url
+	 * @param apikey API key of the session
+	 * @param username user name of the session, may be empty
+	 * @return identity of the session for {@link #key}
+	 */
+	public static String account(final String url, final String apikey, final String username) {
+		return "server=" + normalize(url) + "\naccount=" + hash(normalize(apikey) + "\n" + normalize(username));
+	}
+
+
+	/**
+	 * create the cache key for a query.  The identifier field, a plain identifier and the sort
+	 * are normalized so that trivial differences like surrounding white space or the case of
+	 * the field name do not cause a miss.  Structure queries, which have no identifier field,
+	 * are used as they are, since white space in a molfile is significant.
+	 *
+	 * @param account server and account from {@link #account}
+	 * @return key for the query
+	 */
+	public static String key(final String account, final ReaxysDataTypes dataType, final String idField,
+			final String id, final String query, final int startResult, final int maxResults,
+			final boolean addStructures, final boolean sd_v3, final String sortString) {
+
+		final String field = normalize(idField).toUpperCase();
+
+		final StringBuilder sb = new StringBuilder(account);
+		sb.append("\ndb=").append(dataType.getDatabase());
+		sb.append("\ncontext=").append(dataType.getContext());
+		sb.append("\ndata=").append(dataType.getCode());
+		sb.append("\nfield=").append(field);
+		sb.append("\nid=").append(field.isEmpty() ? id : normalize(id));
+		sb.append("\nquery=").append(query);
+		sb.append("\nrange=").append(startResult).append(",").append(maxResults);
+		sb.append("\nstructures=").append(addStructures).append(",").append(sd_v3);
+		sb.append("\nsort=").append(normalize(sortString));
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * trim and collapse white space
+	 *
+	 * @param value value to normalize, may be null
+	 * @return normalized value
+	 */
+	static String normalize(final String value) {
+
+		if (value == null) {
+			return "";
+		}
+		return value.trim().replaceAll("\\s+", " ");
+	}
+
+
+	/**
+	 * check whether a result is cached, without reading it
+	 *
+	 * @param key key from {@link #key}
+	 * @return true if the result is cached and has not expired
+	 */
+	public boolean contains(final String key) {
+
+		final File file = fileFor(key);
+
+		if (!file.isFile()) {
+			return false;
+		}
+
+		ObjectInputStream in = null;
+
+		try {
+			in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+
+			final String storedKey = in.readUTF();
+			final long created = in.readLong();
+
+			return storedKey.equals(key) && System.currentTimeMillis() - created <= lifetimeMs;
+
+		} catch (Exception e) {
+			return false;
+
+		} finally {
+			try { if (in != null) in.close(); } catch (IOException e) {}
+		}
+	}
+
+
+	/**
+	 * get a cached result
+	 *
+	 * @param key key from {@link #key}
+	 * @return the entry, or null if the result is not cached or has expired
+	 */
+	public Entry get(final String key) {
+
+		final File file = fileFor(key);
+
+		if (!file.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		ObjectInputStream in = null;
+
+		try {
+			in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+
+			final String storedKey = in.readUTF();
+			final long created = in.readLong();
+
+			// hash collision or expired entry
+			if (!storedKey.equals(key) || System.currentTimeMillis() - created > lifetimeMs) {
+				in.close();
+				in = null;
+				remove(file);
+				misses.incrementAndGet();
+				return null;
+			}
+
+			final int resultCount = in.readInt();
+			final int size = in.readInt();
+			final MemoryBackedList<ResultRecord> results = new MemoryBackedList<ResultRecord>(new RecordCodec());
+
+			for (int i = 0; i < size; i++) {
+				final Object record = in.readObject();
+				
+				// entries written before records had their own type hold hash maps
+				if (record instanceof ResultRecord) {
+					results.add((ResultRecord) record);
+				} else {
+					@SuppressWarnings("unchecked")
+					final Map<String, String> map = (Map<String, String>) record;
+					results.add(new ResultRecord(map));
+				}
+			}
+
+			// recently used entries are evicted last
+			file.setLastModified(System.currentTimeMillis());
+			hits.incrementAndGet();
+
+			return new Entry(resultCount, results);
+
+		} catch (Exception e) {
+			if (logger != null) logger.info("unreadable cache entry " + file + ": " + e);
+			misses.incrementAndGet();
+
+		} finally {
+			try { if (in != null) in.close(); } catch (IOException e) {}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * store a result in the cache.  The entry is written to a temporary file first so that
+	 * readers never see a partly written entry.
+	 *
+	 * @param key key from {@link #key}
+	 * @param resultCount total number of results of the query
+	 * @param results results to store
+	 */
+	public void put(final String key, final int resultCount, final List<ResultRecord> results) {
+
+		final File file = fileFor(key);
+		File temp = null;
+		ObjectOutputStream out = null;
+
+		try {
+			temp = File.createTempFile("entry", ".tmp", directory);
+			out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp))));
+
+			out.writeUTF(key);
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(resultCount);
+			out.writeInt(results.size());
+
+			for (final ResultRecord map : results) {
+				out.writeObject(map);
+				out.reset(); // don't keep references to every record written
+			}
+
+			out.close();
+			out = null;
+
+			final long oldSize = file.length();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+			synchronized (this) {
+				totalBytes += file.length() - oldSize;
+			}
+
+			evict();
+
+		} catch (Exception e) {
+			if (logger != null) logger.info("failed to write cache entry: " + e);
+
+		} finally {
+			try { if (out != null) out.close(); } catch (IOException e) {}
+			if (temp != null && temp.exists()) temp.delete();
+		}
+	}
+
+
+	/**
+	 * delete least recently used entries when the cache grows beyond the size limit.  Entries
+	 * are deleted down to LOW_WATER of the limit, so the directory is not listed and sorted
+	 * again for every entry that is added to a full cache.
+	 */
+	synchronized void evict() {
+
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+
+		final File[] files = entries();
+		final long target = (long) (maxBytes * LOW_WATER);
+
+		// read each time once, not for every comparison
+		final long[] times = new long[files.length];
+		final Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			times[i] = files[i].lastModified();
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(times[a], times[b]);
+			}
+		});
+
+		for (final int i : order) {
+			if (totalBytes <= target) {
+				break;
+			}
+			remove(files[i]);
+		}
+	}
+
+
+	/**
+	 * delete a cache file
+	 *
+	 * @param file file to delete
+	 */
+	synchronized void remove(final File file) {
+
+		final long size = file.length();
+		if (file.delete()) {
+			totalBytes -= size;
+		}
+	}
+
+
+	/**
+	 * get the files of the cache entries
+	 *
+	 * @return array of entry files
+	 */
+	File[] entries() {
+
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+
+		int n = 0;
+		for (final File f : files) {
+			if (f.getName().endsWith(SUFFIX)) {
+				files[n++] = f;
+			}
+		}
+		return Arrays.copyOf(files, n);
+	}
+
+
+	/**
+	 * name of the file for a key
+	 *
+	 * @param key cache key
+	 * @return file in the cache directory
+	 */
+	File fileFor(final String key) {
+		return new File(directory, hash(key) + SUFFIX);
+	}
+
+
+	/**
+	 * hash a string
+	 *
+	 * @param value string to hash
+	 * @return hex digits of the SHA-1 hash
+	 */
+	static String hash(final String value) {
+
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			final byte[] digest = md.digest(value.getBytes(KEY_ENCODING));
+			final StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			// every java platform has SHA-1
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * get the cache directory
+	 *
+	 * @return directory with the cache files
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+
+	/**
+	 * report cache statistics
+	 *
+	 * @return one line summary of the hits and misses
+	 */
+	public String report() {
+
+		return String.format("---- Response cache: %d hits %d misses %dk on disk",
+				hits.get(), misses.get(), totalBytes / 1024);
+	}
+
+
+	/**
+	 * copy the cache entries from one directory to another, e.g. to and from the node
+	 * internals.
+	 *
+	 * @param from source directory
+	 * @param to destination directory, created if needed
+	 * @throws IOException on error
+	 */
+	public static void copyEntries(final File from, final File to) throws IOException {
+
+		if (!to.isDirectory() && !to.mkdirs()) {
+			throw new IOException("can't create directory " + to);
+		}
+
+		final File[] files = from.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (final File f : files) {
+			if (f.getName().endsWith(SUFFIX)) {
+				final File target = new File(to, f.getName());
+				Files.copy(f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				target.setLastModified(f.lastModified());
+			}
+		}
+	}
+}
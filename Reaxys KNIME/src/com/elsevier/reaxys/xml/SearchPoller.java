@@ -0,0 +1,165 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.node.NodeLogger;
+
+/**
+ * sends searches with {@link ReaxysAPI#submitSearch}, polls them while they are running on
+ * the server, and starts their retrieval as soon as they are ready.  One thread polls all
+ * the searches of a node, each on its own {@link PollSchedule}, so searches for many input
+ * rows can run on the server at the same time without a worker thread waiting for each of
+ * them.  The searches are sent from a few threads of their own, so the thread that submits
+ * the lookups does not wait for the requests.
+ */
+public class SearchPoller {
+
+	private static final AtomicInteger count = new AtomicInteger();
+
+	private final ScheduledExecutorService timer;
+	private final ExecutorService sender;
+
+	// the logger instance
+	private static NodeLogger logger = null;
+
+
+	/**
+	 * create the polling thread and the threads that send the searches
+	 *
+	 * @param senders number of searches that are sent at the same time
+	 */
+	public SearchPoller(final int senders) {
+
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "Reaxys search poller-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		sender = Executors.newFixedThreadPool(Math.max(1, senders), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "Reaxys search sender-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+			logger = NodeLogger.getLogger(SearchPoller.class);
+		} catch (Throwable er) {
+			// We are not running in KNIME
+		}
+	}
+
+
+	/**
+	 * send a search on a sender thread, and run a task once it is ready.  Nothing is sent
+	 * if the task was cancelled before the search could be sent.
+	 *
+	 * @param reaxys API object the search is sent with
+	 * @param send sends the search with the API object
+	 * @param task task that retrieves the results of the search
+	 * @param executor executor to run the task on
+	 */
+	public void start(final ReaxysAPI reaxys, final Runnable send, final RunnableFuture<?> task,
+			final Executor executor) {
+
+		sender.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				if (task.isDone()) {
+					return;
+				}
+
+				send.run();
+				whenReady(reaxys, task, executor);
+			}
+		});
+	}
+
+
+	/**
+	 * run a task once the search of an API object is ready.  The task runs right away if
+	 * the search is not running, and is dropped if it is cancelled while the search runs.  If
+	 * the search takes too long or can't be polled, the task runs anyway and handles it the
+	 * way a search that was not started ahead would be handled.
+	 *
+	 * @param reaxys API object with the search that was started
+	 * @param task task that retrieves the results of the search
+	 * @param executor executor to run the task on
+	 */
+	private void whenReady(final ReaxysAPI reaxys, final RunnableFuture<?> task, final Executor executor) {
+
+		if (!reaxys.isSearchRunning()) {
+			executor.execute(task);
+			return;
+		}
+
+		schedule(reaxys, task, executor);
+	}
+
+
+	/**
+	 * schedule the next poll of a search
+	 *
+	 * @param reaxys API object with the search that is running
+	 * @param task task to run when the search is ready
+	 * @param executor executor to run the task on
+	 */
+	private void schedule(final ReaxysAPI reaxys, final RunnableFuture<?> task, final Executor executor) {
+
+		final long wait = reaxys.nextPoll();
+
+		if (wait < 0) {
+			executor.execute(task);
+			return;
+		}
+
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+
+				if (task.isDone()) {
+					return;
+				}
+
+				try {
+					if (reaxys.pollSearch()) {
+						schedule(reaxys, task, executor);
+						return;
+					}
+				} catch (Exception e) {
+					if (logger != null) logger.info("error polling search " + reaxys.resName() + ": " + e);
+				}
+
+				executor.execute(task);
+			}
+		}, wait, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * stop sending and polling.  Tasks of searches that are not sent or still running are
+	 * not run.
+	 */
+	public void shutdown() {
+		sender.shutdownNow();
+		timer.shutdownNow();
+	}
+}
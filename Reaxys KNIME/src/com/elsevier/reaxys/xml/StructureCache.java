@@ -0,0 +1,124 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.elsevier.reaxys.Cache;
+import com.elsevier.reaxys.ReaxysDataTypes;
+import com.elsevier.reaxys.ResultRecord;
+import com.elsevier.reaxys.memoryBackedList.MemoryBackedList;
+
+/**
+ * structures retrieved for addStructures, by substance XRN or reaction RX.ID, kept for a
+ * whole execution of the node.  Common reagents and products occur in the results of many
+ * input rows; with the cache their structures are retrieved once instead of for every row.
+ *
+ * An identifier that has no structure is cached as an empty record, so it is not searched
+ * again either.  Structures are kept in memory up to a budget, and optionally also in a
+ * {@link ResponseCache}, so they are kept between executions.
+ */
+public class StructureCache {
+
+	/* estimated bytes of the structures kept in memory */
+	static final long MEMORY_BYTES = 64L << 20;
+
+	private final Cache<String, ResultRecord> memory = new Cache<String, ResultRecord>(MEMORY_BYTES,
+			new Cache.Weigher<String, ResultRecord>() {
+				@Override
+				public int weigh(final String key, final ResultRecord record) {
+					return 40 + 2 * key.length() + record.estimateBytes();
+				}
+			});
+
+	private final ResponseCache store;
+
+
+	/**
+	 * create a cache
+	 *
+	 * @param store cache that keeps the structures between executions, or null to keep them
+	 * only in memory
+	 */
+	public StructureCache(final ResponseCache store) {
+		this.store = store;
+	}
+
+
+	/**
+	 * get the structure of an identifier
+	 *
+	 * @param dataType YY for substances, RY for reactions
+	 * @param v3 true for v3000 structures
+	 * @param id XRN or RX.ID
+	 * @return the structure record, an empty record if the identifier has no structure, or
+	 * null if it is not cached
+	 */
+	ResultRecord get(final ReaxysDataTypes dataType, final boolean v3, final String id) {
+
+		final String key = key(dataType, v3, id);
+		ResultRecord structure = memory.get(key);
+
+		if (structure == null && store != null) {
+
+			final ResponseCache.Entry stored = store.get(key);
+			if (stored != null) {
+				structure = stored.results.isEmpty() ? new ResultRecord() : stored.results.get(0);
+				close(stored.results);
+				memory.put(key, structure);
+			}
+		}
+
+		return structure;
+	}
+
+
+	/**
+	 * add the structure of an identifier
+	 *
+	 * @param dataType YY for substances, RY for reactions
+	 * @param v3 true for v3000 structures
+	 * @param id XRN or RX.ID
+	 * @param structure the structure record, or null if the identifier has no structure
+	 */
+	void put(final ReaxysDataTypes dataType, final boolean v3, final String id, final ResultRecord structure) {
+
+		final String key = key(dataType, v3, id);
+		final ResultRecord record = structure != null ? structure : new ResultRecord();
+
+		memory.put(key, record);
+
+		if (store != null) {
+			final List<ResultRecord> results = structure != null
+					? Collections.singletonList(record) : Collections.<ResultRecord>emptyList();
+			store.put(key, results.size(), results);
+		}
+	}
+
+
+	/**
+	 * report cache statistics
+	 *
+	 * @return one line summary of the cache
+	 */
+	public String report() {
+		return "---- Structure cache: " + memory;
+	}
+
+
+	/**
+	 * create the key of a structure.  Keys of the response cache contain "query=", so
+	 * they can't be the same.
+	 */
+	static String key(final ReaxysDataTypes dataType, final boolean v3, final String id) {
+		return "structure\ndb=" + dataType.getDatabase() + "\ncontext=" + dataType.getContext()
+				+ "\nv3=" + v3 + "\nid=" + ResponseCache.normalize(id);
+	}
+
+
+	private static void close(final List<ResultRecord> results) {
+
+		if (results instanceof MemoryBackedList) {
+			((MemoryBackedList<ResultRecord>) results).close();
+		}
+	}
+}
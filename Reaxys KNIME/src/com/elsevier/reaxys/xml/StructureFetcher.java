@@ -0,0 +1,289 @@
+package com.elsevier.reaxys.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.elsevier.reaxys.ReaxysDataTypes;
+import com.elsevier.reaxys.ReaxysFieldTypes;
+import com.elsevier.reaxys.ResultRecord;
+import com.elsevier.reaxys.memoryBackedList.MemoryBackedList;
+import com.elsevier.reaxys.memoryBackedList.RecordCodec;
+
+/**
+ * searches the structures of the records for addStructures in batches of BATCH_SIZE
+ * identifiers.  A batch is sent as soon as it is full, so when structures are added the
+ * structures of the first chunks of facts are retrieved while later chunks are still
+ * arriving; see {@link ReaxysAPI#getFact}.  Up to 1 + the prefetch depth batches are
+ * searched at the same time; a batch is only sent once one of those is free, so the
+ * searches waiting to run do not each hold a thread of the prefetch pool.
+ *
+ * Identifiers are only searched once, and not at all if they are in the structure cache.
+ * The fetcher is used by one thread; only the searches run on other threads.
+ */
+class StructureFetcher {
+
+	/*
+	 * max XRN count for query this is the size limit, in units of
+	 * XRN numbers.  each one is about 10 digits
+	 */
+	static final int BATCH_SIZE = 256;
+
+	final ReaxysDataTypes dataType;
+	final boolean v3;
+
+	private final ReaxysAPI api;
+	private final String mrnLabel = ReaxysFieldTypes.getLabel("DAT.MRN");
+	private final String xrnLabel = ReaxysFieldTypes.getLabel("IDE.XRN");
+	private final String rxidLabel = ReaxysFieldTypes.getLabel("RX.ID");
+
+	/* identifiers seen so far; XRNs and RX.IDs are numbers, so they are kept as longs */
+	private final LongIntMap uniqueIDs = new LongIntMap();
+
+	/* identifiers that are searched, the last ones not yet sent */
+	private long[] searchIDs = new long[64];
+	private int searchCount = 0;
+	private int sentCount = 0;
+
+	/* structures found for earlier rows, or in earlier executions, by identifier */
+	final LongIntMap cachedIndex = new LongIntMap();
+	final List<ResultRecord> cachedStructures = new ArrayList<ResultRecord>();
+
+	/* searches of the batches sent, in order, and the number allowed to run at once */
+	private final List<Future<List<ResultRecord>>> batches = new ArrayList<Future<List<ResultRecord>>>();
+	private final Semaphore running;
+	private final AtomicBoolean complete = new AtomicBoolean(true);
+
+
+	/**
+	 * create a fetcher
+	 *
+	 * @param api query the structures are for; batches are searched with copies of it
+	 * @param dataType YY for substances, RY for reactions
+	 * @param v3 true for v3000 structures
+	 */
+	StructureFetcher(final ReaxysAPI api, final ReaxysDataTypes dataType, final boolean v3) {
+
+		this.api = api;
+		this.dataType = dataType;
+		this.v3 = v3;
+		running = new Semaphore(1 + api.prefetch);
+	}
+
+
+	/**
+	 * get the structure type to add to records of a data type, before the records are known
+	 *
+	 * @param factType data type of the records
+	 * @return RY for reaction data, YY otherwise
+	 */
+	static ReaxysDataTypes structureType(final ReaxysDataTypes factType) {
+		return "R".equals(factType.getContext()) ? ReaxysDataTypes.RY : ReaxysDataTypes.YY;
+	}
+
+
+	/**
+	 * request the structures of records, and send the batches that are full
+	 *
+	 * @param records records whose structures are added
+	 * @throws Exception CanceledExecutionException if the node was cancelled while waiting to send
+	 */
+	void request(final List<ResultRecord> records) throws Exception {
+
+		for (final ResultRecord record : records) {
+			request(structureId(record));
+		}
+	}
+
+
+	/**
+	 * send the identifiers requested so far, and wait for all batches.
+	 *
+	 * @return the structures retrieved, in the order the batches were sent
+	 * @throws Exception CanceledExecutionException if the node was cancelled
+	 */
+	MemoryBackedList<ResultRecord> finish() throws Exception {
+
+		send();
+
+		final MemoryBackedList<ResultRecord> structureData = new MemoryBackedList<ResultRecord>(new RecordCodec());
+
+		try {
+			for (final Future<List<ResultRecord>> batch : batches) {
+
+				final List<ResultRecord> temp = api.take(batch);
+
+				if (temp == null) {
+					complete.set(false);
+					continue;
+				}
+
+				if (temp.size() > 0) {
+					structureData.addAll(temp);
+				}
+				((MemoryBackedList<ResultRecord>) temp).close();
+			}
+		} catch (Exception e) {
+			structureData.close();
+			throw e;
+		} finally {
+			cancel();
+		}
+
+		return structureData;
+	}
+
+
+	/**
+	 * stop the searches that have not finished
+	 */
+	void cancel() {
+
+		for (final Future<List<ResultRecord>> batch : batches) {
+			batch.cancel(true);
+		}
+	}
+
+
+	/**
+	 * @return false if a search failed or did not complete, so some structures may be missing
+	 */
+	boolean isComplete() {
+		return complete.get();
+	}
+
+
+	/**
+	 * @return number of identifiers that were searched
+	 */
+	int getSearchCount() {
+		return searchCount;
+	}
+
+
+	/**
+	 * @param i index of an identifier that was searched
+	 * @return the identifier
+	 */
+	long getSearchID(final int i) {
+		return searchIDs[i];
+	}
+
+
+	/**
+	 * get the identifier of the structure of a record: the RX.ID for reactions, otherwise
+	 * the DAT.MRN or IDE.XRN.
+	 *
+	 * @param record record whose structure is added
+	 * @return the identifier, or -1 if the record has none
+	 */
+	long structureId(final ResultRecord record) {
+
+		if (dataType == ReaxysDataTypes.RY) {
+			return ReaxysAPI.parseId(record.get(rxidLabel));
+		}
+
+		final String mrn = record.get(mrnLabel);
+		return ReaxysAPI.parseId(mrn != null ? mrn : record.get(xrnLabel));
+	}
+
+
+	/**
+	 * request the structure of an identifier
+	 *
+	 * @param id the identifier, or -1 for none
+	 * @throws Exception CanceledExecutionException if the node was cancelled while waiting to send
+	 */
+	private void request(final long id) throws Exception {
+
+		if (id < 0 || uniqueIDs.putIfAbsent(id, 0) >= 0) {
+			return;
+		}
+
+		final ResultRecord cached = api.structureCache != null
+				? api.structureCache.get(dataType, v3, Long.toString(id)) : null;
+
+		if (cached != null) {
+			cachedIndex.put(id, cachedStructures.size());
+			cachedStructures.add(cached);
+			return;
+		}
+
+		if (searchCount == searchIDs.length) {
+			searchIDs = Arrays.copyOf(searchIDs, 2 * searchCount);
+		}
+		searchIDs[searchCount++] = id;
+
+		if (searchCount - sentCount == BATCH_SIZE) {
+			send();
+		}
+	}
+
+
+	/**
+	 * send a search for the identifiers that were not sent yet, once fewer than the allowed
+	 * number of searches are running
+	 *
+	 * @throws Exception CanceledExecutionException if the node was cancelled while waiting
+	 */
+	private void send() throws Exception {
+
+		if (sentCount == searchCount) {
+			return;
+		}
+
+		final StringBuilder query = new StringBuilder(dataType == ReaxysDataTypes.RY ? "RX.ID=" : "IDE.XRN=");
+
+		for (int i = sentCount; i < searchCount; i++) {
+			if (i > sentCount) {
+				query.append(';');
+			}
+			query.append(searchIDs[i]);
+		}
+		sentCount = searchCount;
+
+		final String ideQuery = query.toString();
+
+		// the search releases the permit when it is done
+		while (!running.tryAcquire(ReaxysAPI.POLL_MS, TimeUnit.MILLISECONDS)) {
+			if (api.exec != null) {
+				api.exec.checkCanceled();
+			}
+		}
+
+		final Callable<List<ResultRecord>> task = new Callable<List<ResultRecord>>() {
+			@Override
+			public List<ResultRecord> call() throws Exception {
+
+				try {
+					final ReaxysAPI structureApi = new ReaxysAPI(api);
+					final List<ResultRecord> structures = structureApi
+						.getFactComplete("", "", ideQuery, dataType, 1, Integer.MAX_VALUE, v3, null);
+
+					if (structureApi.incomplete) {
+						complete.set(false);
+					}
+					return structures;
+
+				} finally {
+					running.release();
+				}
+			}
+		};
+
+		// without prefetching the batches are searched one by one on this thread
+		if (api.prefetch < 1) {
+			final FutureTask<List<ResultRecord>> future = new FutureTask<List<ResultRecord>>(task);
+			future.run();
+			batches.add(future);
+		} else {
+			batches.add(ReaxysAPI.prefetchPool.submit(task));
+		}
+	}
+}
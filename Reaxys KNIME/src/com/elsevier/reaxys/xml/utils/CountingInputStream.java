@@ -0,0 +1,94 @@
+package com.elsevier.reaxys.xml.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * input stream that counts the bytes read through it.  Used below the decompression of
+ * responses to count the bytes that were actually transferred, and above it to count and
+ * limit the size of the decompressed response.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private final AtomicLong count;
+	private final long limit;
+	private long read = 0;
+
+	/**
+	 * wrap a stream
+	 *
+	 * @param in stream to read
+	 * @param count counter incremented with the number of bytes read
+	 */
+	public CountingInputStream(final InputStream in, final AtomicLong count) {
+		this(in, count, Long.MAX_VALUE);
+	}
+
+	/**
+	 * wrap a stream, ending it after a maximum number of bytes
+	 *
+	 * @param in stream to read
+	 * @param count counter incremented with the number of bytes read
+	 * @param limit maximum number of bytes to read
+	 */
+	CountingInputStream(final InputStream in, final AtomicLong count, final long limit) {
+		super(in);
+		this.count = count;
+		this.limit = limit;
+	}
+
+	/**
+	 * return true if the stream was ended because it reached the limit
+	 *
+	 * @return true if the limit was reached
+	 */
+	boolean limitReached() {
+		return read >= limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if (limitReached()) {
+			return -1;
+		}
+
+		final int b = super.read();
+		if (b != -1) {
+			read++;
+			count.incrementAndGet();
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+
+		if (limitReached()) {
+			return -1;
+		}
+
+		final int n = super.read(b, off, (int) Math.min(len, limit - read));
+		if (n > 0) {
+			read += n;
+			count.addAndGet(n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+
+		final long skipped = super.skip(Math.min(n, limit - read));
+		read += skipped;
+		count.addAndGet(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,80 @@
+package com.elsevier.reaxys.xml.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * SSL socket factory that counts the sockets it creates.  The connections of a session all
+ * use the same factory, so the JVM keep-alive cache can hand an idle connection back to the
+ * session; a request that reuses a connection does not create a socket, so the count gives
+ * the number of real connections (TCP and TLS handshakes) that the session made.
+ */
+class CountingSocketFactory extends SSLSocketFactory {
+
+	private final SSLSocketFactory factory;
+	private final AtomicLong connections;
+
+	/**
+	 * wrap a socket factory
+	 *
+	 * @param factory factory that creates the sockets
+	 * @param connections counter incremented for every socket created
+	 */
+	CountingSocketFactory(final SSLSocketFactory factory, final AtomicLong connections) {
+		this.factory = factory;
+		this.connections = connections;
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return factory.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return factory.getSupportedCipherSuites();
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		connections.incrementAndGet();
+		return factory.createSocket();
+	}
+
+	@Override
+	public Socket createSocket(final Socket s, final String host, final int port, final boolean autoClose)
+			throws IOException {
+		connections.incrementAndGet();
+		return factory.createSocket(s, host, port, autoClose);
+	}
+
+	@Override
+	public Socket createSocket(final String host, final int port) throws IOException {
+		connections.incrementAndGet();
+		return factory.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(final String host, final int port, final InetAddress localHost,
+			final int localPort) throws IOException {
+		connections.incrementAndGet();
+		return factory.createSocket(host, port, localHost, localPort);
+	}
+
+	@Override
+	public Socket createSocket(final InetAddress host, final int port) throws IOException {
+		connections.incrementAndGet();
+		return factory.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress,
+			final int localPort) throws IOException {
+		connections.incrementAndGet();
+		return factory.createSocket(address, port, localAddress, localPort);
+	}
+}
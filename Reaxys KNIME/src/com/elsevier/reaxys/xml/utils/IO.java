@@ -1,17 +1,24 @@
 package com.elsevier.reaxys.xml.utils;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.xml.parsers.DocumentBuilder;
@@ -43,19 +50,41 @@ public class IO implements Serializable {
 	 * 
 	 */
 	private static final long serialVersionUID = -3984819334373039648L;
-	private  transient Transformer transformer = null;
-	private  transient DocumentBuilder docBuilder = null;  // not serializable
-	private  long bytesRead = 0;
-	private  long bytesWritten = 0;
-	private  long requests = 0;
-	private  long elapsedTime = 0;
+	/*
+	 * transformers and document builders are not thread safe, so each thread that shares this
+	 * session gets its own.
+	 */
+	private  transient ThreadLocal<Transformer> transformer = null;
+	private  transient ThreadLocal<DocumentBuilder> docBuilder = null;  // not serializable
+	/*
+	 * time of the last exchange of each thread, from getting a connection to the end of the response
+	 */
+	private  transient ThreadLocal<Long> exchangeTime = null;
+	/*
+	 * statistics are updated by every thread using the session
+	 */
+	private  final AtomicLong bytesRead = new AtomicLong();
+	private  final AtomicLong bytesTransferred = new AtomicLong();  // before decompression
+	private  final AtomicLong bytesWritten = new AtomicLong();
+	private  final AtomicLong requests = new AtomicLong();
+	private  final AtomicLong elapsedTime = new AtomicLong();
+	private  final AtomicLong connections = new AtomicLong();
+	
+	/*
+	 * connections are kept alive and reused by the JVM between requests, as long as they use
+	 * the same socket factory and the responses are read completely.  The semaphore limits the
+	 * number of connections this session has open at the same time.
+	 */
+	private  transient CountingSocketFactory socketFactory = null;
+	private  transient Semaphore connectionLimit = null;
+	private  int maxConnections = DEFAULT_MAX_CONNECTIONS;
 	
 	/*
 	 * map for cookies. We handle cookies here instead of the system cookie handler so that multiple instances
 	 * of this node in the same JVM can have their own session cookies.  Otherwise the nodes interfere with each other
 	 * by over-writing the session id's
 	 */
-	private Map<String, List<String>> headers;
+	private volatile Map<String, List<String>> headers;
 
 
 	/* text encoding specified here */
@@ -63,6 +92,12 @@ public class IO implements Serializable {
 	
 	/* timeout for reading data from Reaxys, in milliseconds */
 	public static final int READ_TIMEOUT_MS = 300 * 1000;
+	
+	/* default number of connections a session may have open at the same time */
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+	
+	/* content encodings accepted for responses */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
 
 	/*
 	 * backstop for reading 'endless' stream; maximum size of document to read
@@ -106,7 +141,15 @@ public class IO implements Serializable {
 	 * @return long count of bytes read from the URL
 	 */
 	long getBytesRead() {
-		return bytesRead;
+		return bytesRead.get();
+	}
+	
+	/**
+	 * get the count of bytes received for this IO object, before decompression
+	 * @return long count of bytes transferred from the URL
+	 */
+	long getBytesTransferred() {
+		return bytesTransferred.get();
 	}
 
 	/**
@@ -115,7 +158,7 @@ public class IO implements Serializable {
 	 * @return long count of bytes written to the URL
 	 */
 	long getBytesWritten() {
-		return bytesWritten;
+		return bytesWritten.get();
 	}
 
 	/**
@@ -124,7 +167,7 @@ public class IO implements Serializable {
 	 * @return long count of requests
 	 */
 	long getRequests() {
-		return requests;
+		return requests.get();
 	}
 	
 	/**
@@ -133,17 +176,63 @@ public class IO implements Serializable {
 	 * @return long total elapsed time in milliseconds
 	 */
 	long getElapsed() {
-		return elapsedTime;
+		return elapsedTime.get();
+	}
+	
+	/**
+	 * get count of connections opened; requests that reused a kept-alive connection
+	 * are not counted.
+	 * 
+	 * @return long count of new connections
+	 */
+	long getConnections() {
+		return connections.get();
+	}
+	
+	/**
+	 * get the percentage of requests that reused an open connection
+	 * 
+	 * @return percentage of requests sent on a reused connection
+	 */
+	double getReuseRate() {
+		
+		final long count = getRequests();
+		if (count == 0) {
+			return 0.0;
+		}
+		return 100.0 * Math.max(0, count - getConnections()) / count;
+	}
+	
+	/**
+	 * set the maximum number of connections this session may have open at the same time.
+	 * Requests beyond the limit wait for a connection to be released.
+	 * 
+	 * @param value maximum number of connections, at least 1
+	 */
+	public void setMaxConnections(final int value) {
+		maxConnections = Math.max(1, value);
+		connectionLimit = new Semaphore(maxConnections, true);
+	}
+	
+	/**
+	 * get the maximum number of connections this session may have open at the same time
+	 * 
+	 * @return maximum number of connections
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
 	}
 
 	/**
 	 * reset the collected IO statistics
 	 */
 	public  void reset() {
-		bytesRead = 0;
-		bytesWritten = 0;
-		requests = 0;
-		elapsedTime = 0;
+		bytesRead.set(0);
+		bytesTransferred.set(0);
+		bytesWritten.set(0);
+		requests.set(0);
+		elapsedTime.set(0);
+		connections.set(0);
 		clearCookies();
 	}
 
@@ -155,9 +244,10 @@ public class IO implements Serializable {
 	public String report() {
 
 		final String rep = String
-				.format("---- Session IO Summary: %4d XML requests %5dk written %5dk read %5.2f seconds",
+				.format("---- Session IO Summary: %4d XML requests %5dk written %5dk read (%5dk transferred) %5.2f seconds %4d connections %5.1f%% reused",
 						getRequests(), getBytesWritten() / 1024,
-						getBytesRead() / 1024, getElapsed() / 1000.0);
+						getBytesRead() / 1024, getBytesTransferred() / 1024, getElapsed() / 1000.0,
+						getConnections(), getReuseRate());
 
 		if (logger != null) {
 			logger.info(rep);
@@ -184,14 +274,57 @@ public class IO implements Serializable {
 	}
 
 	/**
-	 * initialize XML and other static stuffs.
+	 * initialize XML and other static stuffs.  The transformer and document builder are
+	 * created lazily for each thread that uses this object.
 	 */
 	public void init() {
 		
+		socketFactory = new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), connections);
+		connectionLimit = new Semaphore(maxConnections, true);
+		
+		transformer = new ThreadLocal<Transformer>() {
+			@Override
+			protected Transformer initialValue() {
+				return newTransformer();
+			}
+		};
+		
+		docBuilder = new ThreadLocal<DocumentBuilder>() {
+			@Override
+			protected DocumentBuilder initialValue() {
+				return newDocumentBuilder();
+			}
+		};
+		
+		exchangeTime = new ThreadLocal<Long>();
+	}
+	
+	
+	/**
+	 * get the time of the last exchange of the calling thread, and clear it.  The time starts
+	 * when a connection is available, so waiting for one of the connections of the session
+	 * is not counted.
+	 * 
+	 * @return time in milliseconds, or -1 if the thread made no exchange since the last call
+	 */
+	public long takeExchangeTime() {
+		
+		final Long time = exchangeTime.get();
+		exchangeTime.remove();
+		return time == null ? -1 : time;
+	}
+	
+	/**
+	 * create a transformer for writing XML documents as strings
+	 * 
+	 * @return transformer, or null on error
+	 */
+	Transformer newTransformer() {
+		
 		try {
 			
-			transformer = TransformerFactory.newInstance().newTransformer();
-			transformer.setOutputProperty(OutputKeys.ENCODING, TEXT_ENCODING);
+			final Transformer result = TransformerFactory.newInstance().newTransformer();
+			result.setOutputProperty(OutputKeys.ENCODING, TEXT_ENCODING);
 
 			// make xml pretty for debugging
 			if (debug) {
@@ -199,31 +332,49 @@ public class IO implements Serializable {
 				 * make it look pretty for debug, otherwise don't add more
 				 * characters for formatting
 				 */
-				transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-				// transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
+				result.setOutputProperty(OutputKeys.INDENT, "yes");
+				// result.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
 				// "https://www.reaxys.com/xfserv/rx.dtd");
-				transformer.setOutputProperty(
+				result.setOutputProperty(
 						"{http://xml.apache.org/xslt}indent-amount", "2");
 			} else {
 				
-				transformer.setOutputProperty(OutputKeys.INDENT, "no");
-				transformer.setOutputProperty(
+				result.setOutputProperty(OutputKeys.INDENT, "no");
+				result.setOutputProperty(
 						"{http://xml.apache.org/xslt}strip-space", "*");
 			}
+			
+			return result;
+
+		} catch (final Exception e) {
+			System.err.println("IO error: " + e);
+			if (logger != null) logger.error("IO error:" + e);
+		}
+
+		return null;
+	}
+	
+	/**
+	 * create a document builder for parsing responses
+	 * 
+	 * @return document builder, or null on error
+	 */
+	DocumentBuilder newDocumentBuilder() {
+		
+		try {
 
 			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 			dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
 			dbf.setValidating(false);
 			dbf.setIgnoringElementContentWhitespace(true);
-			docBuilder = dbf.newDocumentBuilder();
-
-			
+			return dbf.newDocumentBuilder();
 
 		} catch (final Exception e) {
 			System.err.println("IO error: " + e);
 			if (logger != null) logger.error("IO error:" + e);
 		}
 
+		return null;
 	}
 
 	/**
@@ -237,7 +388,7 @@ public class IO implements Serializable {
 		try {
 			doc.normalize();
 			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			transformer.transform(new DOMSource(doc), new StreamResult(baos));
+			transformer.get().transform(new DOMSource(doc), new StreamResult(baos));
 
 			return baos.toString(TEXT_ENCODING);
 
@@ -259,28 +410,9 @@ public class IO implements Serializable {
 	 */
 	public  Document request(final Document doc, String url) {
 
-		String resp = null;
-		
 		try {
 
-			final String text = docToString(doc);
-
-			if (debug) {
-				final String fixedText = text; //.replaceFirst("caller=\"[^\"]*[\"]", "caller=XXXXXXX");
-				System.out.println("\n-------- request -----------");
-				System.out.println(fixedText);
-				if (logger != null) logger.info("\n-------- request -----------\n" + fixedText);
-			}
-
-			resp = request(text, url);
-
-			if (debug) {
-				final String fixedText = resp; //.replaceFirst("caller=\"[^\"]*[\"]", "caller=XXXXXXX");
-
-				System.out.println("\n-------- response -----------");
-				System.out.println(fixedText);
-				if (logger != null) logger.info("\n-------- response -----------\n" + fixedText);
-			}
+			final String resp = requestText(doc, url);
 
 			if (resp != null) {
 				return stringToDoc(resp);
@@ -299,6 +431,41 @@ public class IO implements Serializable {
 
 		return null;
 	}
+	
+	/**
+	 * send the XML document to the URL and return the response text, without parsing it, so
+	 * that a streaming parser can read it.  If debug is true, write out the XML conversation
+	 * to the log.
+	 * 
+	 * @param doc
+	 *            object with query
+	 * @param url
+	 *            Reaxys url
+	 * @return text of the response, or null on error
+	 */
+	public  String requestText(final Document doc, final String url) {
+
+		final String text = docToString(doc);
+
+		if (debug) {
+			final String fixedText = text; //.replaceFirst("caller=\"[^\"]*[\"]", "caller=XXXXXXX");
+			System.out.println("\n-------- request -----------");
+			System.out.println(fixedText);
+			if (logger != null) logger.info("\n-------- request -----------\n" + fixedText);
+		}
+
+		final String resp = request(text, url);
+
+		if (debug) {
+			final String fixedText = resp; //.replaceFirst("caller=\"[^\"]*[\"]", "caller=XXXXXXX");
+
+			System.out.println("\n-------- response -----------");
+			System.out.println(fixedText);
+			if (logger != null) logger.info("\n-------- response -----------\n" + fixedText);
+		}
+
+		return resp;
+	}
 
 	/**
 	 * parse the string and return an XML document
@@ -322,7 +489,7 @@ public class IO implements Serializable {
 		Document result = null;
 		
 		try {
-			result = docBuilder.parse(is);
+			result = docBuilder.get().parse(is);
 		} catch (Exception e) {
 			if (logger != null) logger.error("docToString: " + e);
 		}
@@ -343,6 +510,9 @@ public class IO implements Serializable {
 		final URL url = new URL(reaxys);
 		final HttpsURLConnection con = (HttpsURLConnection) url.openConnection();
 		
+		// the same factory for every request, so that the connections are pooled for the session
+		con.setSSLSocketFactory(socketFactory);
+		
         // use the session headers to set the authentication cookies for this session
         if (headers != null) {
         	String cookieString = "";
@@ -360,47 +530,137 @@ public class IO implements Serializable {
 		// encourage use of desired encoding
         con.setRequestProperty("content-type", "text/plain; charset=" + TEXT_ENCODING);
         con.setRequestProperty("accept-charset", TEXT_ENCODING);	
+        con.setRequestProperty("accept-encoding", ACCEPT_ENCODING);
+        con.setRequestProperty("connection", "keep-alive");
         con.connect();
         return con;
 	}
 	
 	/**
-	 * send the text string to the url and return the response string
+	 * reads a response while the connection is open, so that the response does not have to
+	 * be held in memory before it is parsed.
+	 *
+	 * @param <T> result of reading the response
+	 */
+	public interface ResponseHandler<T> {
+		
+		/**
+		 * read the response
+		 * 
+		 * @param response decompressed response, with the mojibake fixed
+		 * @return result of reading the response
+		 * @throws Exception on error, which fails the request
+		 */
+		T read(InputStream response) throws Exception;
+	}
+	
+	
+	/**
+	 * send the XML document to the URL and pass the response stream to a handler, without
+	 * reading the response into a string first.  If debug is true the response is read into a
+	 * string anyway, so the XML conversation can be written to the log.
+	 * 
+	 * @param doc
+	 *            object with query
+	 * @param url
+	 *            Reaxys url
+	 * @param handler
+	 *            reads the response
+	 * @return result of the handler, or null on error
+	 */
+	public <T> T request(final Document doc, final String url, final ResponseHandler<T> handler) {
+		
+		if (debug) {
+			
+			final String resp = requestText(doc, url);
+			
+			if (resp == null) {
+				return null;
+			}
+			
+			try {
+				return handler.read(new ByteArrayInputStream(resp.getBytes(TEXT_ENCODING)));
+			} catch (final Exception e) {
+				if (logger != null) logger.error("IO.request: error reading response: " + e);
+			}
+			return null;
+		}
+		
+		return exchange(docToString(doc), url, handler);
+	}
+	
+	
+	/**
+	 * send the text string to the url and return the response string. 
 	 * 
 	 * @param text
 	 *            XML query
-	 * @return text returned after posting the argument text to the url.
+	 * @return text returned after posting the argument text to the url, or null on error
 	 */
 	public String request(final String text, final String reaxys) {
+		
+		return exchange(text, reaxys, new ResponseHandler<String>() {
+			@Override
+			public String read(final InputStream response) throws Exception {
+				return readString(response);
+			}
+		});
+	}
+	
+	
+	/**
+	 * send the text string to the url and read the response with the handler.  The connection is
+	 * not disconnected after a complete response, so it goes back to the keep-alive pool and
+	 * the next request of the session can use it without a new TCP and TLS handshake.
+	 * 
+	 * @param text
+	 *            XML query
+	 * @param reaxys
+	 *            Reaxys url
+	 * @param handler
+	 *            reads the response
+	 * @return result of the handler, or null on error
+	 */
+	<T> T exchange(final String text, final String reaxys, final ResponseHandler<T> handler) {
 
-		requests++;
+		requests.incrementAndGet();
 		final cpuTimer timer = new cpuTimer();
 		DataOutputStream os = null;
-		BufferedInputStream inputStream = null;
+		InputStream inputStream = null;
 		HttpsURLConnection con = null;
+		final Semaphore limit = connectionLimit;
+		
+		try {
+			limit.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (logger != null) logger.error("IO.request interrupted waiting for a connection");
+			return null;
+		}
+		
+		final long acquired = System.nanoTime();
 
 		try {
 			
 			con = makeConnection(reaxys);
 			os = new DataOutputStream(con.getOutputStream());
 			final byte[] data = text.getBytes();
-			bytesWritten += data.length;
+			bytesWritten.addAndGet(data.length);
 			os.write(data);
 			os.close();
 			if (logger != null) logger.info("*send request " + String.format("%7d", data.length) + " bytes: " + timer.elapsedSeconds());
 
 			timer.reset();
 
-			if (headers == null) {
-				headers = con.getHeaderFields();
+			synchronized (this) {
+				if (headers == null) {
+					headers = con.getHeaderFields();
+				}
 			}
 
-			String response = "";
-			
 			try {
 				
 				inputStream = new BufferedInputStream(con.getInputStream());
-				response = readStream(inputStream);
 				
 			} catch (final IOException e) {
 				if (logger != null) logger.error("\nIO.request: " + e 
@@ -409,12 +669,39 @@ public class IO implements Serializable {
 						+ "\n--------\n"
 						+ " after " + timer.elapsedSeconds() + " s\n"
 						);
-				return "";
+				// read the error response so the connection can still be reused
+				discard(con.getErrorStream());
+				return null;
+			}
+			
+			final AtomicLong responseBytes = new AtomicLong();
+			final CountingInputStream response = new CountingInputStream(
+					decode(new CountingInputStream(inputStream, bytesTransferred), con.getContentEncoding()),
+					responseBytes, MAX_DOCUMENT_SIZE);
+			
+			try {
+				
+				final T result = handler.read(new MojibakeFilterInputStream(response));
+				
+				if (logger != null) logger.info("*get response " + String.format("%7d", responseBytes.get()) + " bytes: " + timer.elapsedSeconds());
+				
+				if (response.limitReached()) {
+					if (logger != null) logger.error("readStream: reached max doc size "
+							+ MAX_DOCUMENT_SIZE);
+				}
+				
+				return result;
+				
+			} catch (final Exception e) {
+				if (logger != null) logger.error("\nIO.request: error reading response: " + e 
+						+ " after " + timer.elapsedSeconds() + " s\n");
+				
+			} finally {
+				// total bytes read by this class
+				bytesRead.addAndGet(responseBytes.get());
+				// read to the end so the connection can be reused
+				discard(response);
 			}
-
-			if (logger != null) logger.info("*get response " + String.format("%7d", response.length()) + " bytes: " + timer.elapsedSeconds());
-
-			return response;
 
 		} catch (final IOException e) {
 			if (logger != null) logger.error("IO.request error making request: " + e
@@ -425,18 +712,21 @@ public class IO implements Serializable {
 					);
 			e.printStackTrace();
 			
-		} finally {
-			
-			elapsedTime += timer.getElapsedTime() * 1000; // nanos to millis
-			
-			// these may be closed already, unless exit via error
-			try { inputStream.close(); } catch (Exception i) {}
+			// the connection is in an unknown state, so don't return it to the pool
 			if (con != null) {
 				try { con.disconnect(); } catch(Exception d) {
 					if (logger != null) logger.error("failed to diconnect session: " + con);
 				}
 			}
 			
+		} finally {
+			
+			elapsedTime.addAndGet(timer.getElapsedTime() * 1000); // nanos to millis
+			exchangeTime.set((System.nanoTime() - acquired) / 1000000);
+			
+			// these may be closed already, unless exit via error
+			try { inputStream.close(); } catch (Exception i) {}
+			limit.release();
 		}
 
 		return null;
@@ -446,77 +736,103 @@ public class IO implements Serializable {
 
 
 	/**
-	 * read a stream and return a string with its contents. If the stream blocks
-	 * this will wait until it is not blocked. Close at end of operation because we have
-	 * read all of the available bytes from the stream.
+	 * read the rest of a stream into a string
 	 * 
-	 * A maximum size is set to avoid reading very large streams.
-	 * 
-	 * @param inputStream
-	 *            stream to read
-	 * @return string generated from bytes read from the stream, using UTF-8 encoding
-	 * @throws UnsupportedEncodingException 
+	 * @param inputStream stream of UTF-8 bytes
+	 * @return string with the contents of the stream
+	 * @throws IOException on read error
 	 */
-	String readStream(final InputStream inputStream)  {
-
-		if (inputStream == null) {
-			return "";
-		}
-
+	static String readString(final InputStream inputStream) throws IOException {
+		
 		/* buffer size for reading data */
 		final int bufsize = 8192;
 		final byte[] buffer = new byte[bufsize];
 		final int EOF = -1;
-		
-		int localBytesRead = 0;
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream(bufsize);
-
-		try {
-
-			int len;
-			
-			while ((len = inputStream.read(buffer)) != EOF
-					&& localBytesRead < MAX_DOCUMENT_SIZE) {
-				
-				baos.write(buffer, 0, len);
-				localBytesRead += len;
-			}
-
-			// total bytes read by this class
-			bytesRead += localBytesRead;
-
-			if (localBytesRead >= MAX_DOCUMENT_SIZE) {
-				if (logger != null) logger.error("readStream: reached max doc size "
-						+ MAX_DOCUMENT_SIZE);
-			}
-			
-
+		
+		int len;
+		while ((len = inputStream.read(buffer)) != EOF) {
+			baos.write(buffer, 0, len);
+		}
+		
+		return baos.toString(TEXT_ENCODING);
+	}
+	
+	
+	/**
+	 * wrap a stream with the decompression for its content encoding
+	 * 
+	 * @param inputStream stream with the response body
+	 * @param contentEncoding content encoding of the response, may be null
+	 * @return stream of decompressed data
+	 * @throws IOException if the stream header is not valid for the encoding
+	 */
+	static InputStream decode(final InputStream inputStream, final String contentEncoding) throws IOException {
+		
+		if (contentEncoding == null) {
+			return inputStream;
+		}
+		
+		final String encoding = contentEncoding.trim().toLowerCase();
+		
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			return new GZIPInputStream(inputStream, 8192);
+		}
+		
+		if (encoding.equals("deflate")) {
 			/*
-			 * the unicode micro symbol in RMC is preceeded by some other character which needs to be removed.
-			 * this is a silly, time consuming, and memory intensive fix.
+			 * deflate should have a zlib header, but some servers send raw deflate data. A zlib
+			 * header has compression method 8 and is a multiple of 31.
 			 */
-			final String moji = new String(new byte[] {(byte) 0xC3, (byte) 0x82, (byte) 0xC2, (byte) 0xB5}, TEXT_ENCODING);
-			final String fixedMoji = new String(new byte[] {(byte) 0xC2, (byte) 0xB5}, TEXT_ENCODING);
-			final String result = baos.toString(TEXT_ENCODING).replaceAll(moji, fixedMoji);
-
-			return result;
-
-		} catch (final IOException e) {
-			if (logger != null) logger.error("IO.readStream :" + e);
-				
-		} finally {
+			final PushbackInputStream pb = new PushbackInputStream(inputStream, 2);
+			final int b0 = pb.read();
+			final int b1 = pb.read();
+			if (b1 != -1) pb.unread(b1);
+			if (b0 != -1) pb.unread(b0);
 			
-			baos.reset();
+			final boolean zlib = b0 != -1 && b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+			final Inflater inflater = new Inflater(!zlib);
 			
-			try {
-				inputStream.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+			return new InflaterInputStream(pb, inflater, 8192) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					inflater.end(); // not ended by the stream since it was passed in
+				}
+			};
+		}
+		
+		if (!encoding.equals("identity") && logger != null) {
+			logger.warn("IO.decode: unknown content encoding " + contentEncoding);
+		}
+		
+		return inputStream;
+	}
+	
+	
+	/**
+	 * read and discard the rest of a stream, then close it.  A connection is only kept alive
+	 * if its response has been read to the end.
+	 * 
+	 * @param inputStream stream to discard, may be null
+	 */
+	void discard(final InputStream inputStream) {
+		
+		if (inputStream == null) {
+			return;
+		}
+		
+		final byte[] buffer = new byte[8192];
+		
+		try {
+			while (inputStream.read(buffer) != -1) {
+				// discard
 			}
+		} catch (IOException e) {
+			// connection will not be reused
+		} finally {
+			try { inputStream.close(); } catch (IOException e) {}
 		}
-
-		return null;
-
 	}
 	
 	
@@ -537,7 +853,7 @@ public class IO implements Serializable {
 
 		try {
 			final byte[] byteArray = data.getBytes(TEXT_ENCODING);
-			bytesWritten += byteArray.length;
+			bytesWritten.addAndGet(byteArray.length);
 			outputStream.write(byteArray);
 			outputStream.close();
 
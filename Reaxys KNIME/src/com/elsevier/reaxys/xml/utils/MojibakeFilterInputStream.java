@@ -0,0 +1,160 @@
+package com.elsevier.reaxys.xml.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * the unicode micro symbol in RMC is preceeded by some other character which needs to be
+ * removed.  This stream removes it from the UTF-8 bytes as they are read, replacing the bytes
+ * C3 82 C2 B5 with C2 B5, so the response does not need to be turned into a string to fix it.
+ *
+ * Bytes at the end of a read that could be the start of the sequence are held back until
+ * the next read shows whether they are.
+ */
+class MojibakeFilterInputStream extends FilterInputStream {
+
+	/* the bytes to fix; the first two are removed */
+	private static final byte[] MOJI = {(byte) 0xC3, (byte) 0x82, (byte) 0xC2, (byte) 0xB5};
+
+	private final byte[] buffer = new byte[8192];
+	private int pos = 0;      // next byte to return
+	private int limit = 0;    // end of the filtered bytes
+	private int count = 0;    // end of the bytes read; bytes from limit to count are held back
+	private boolean eof = false;
+
+	/**
+	 * filter a stream
+	 *
+	 * @param in stream of UTF-8 bytes
+	 */
+	MojibakeFilterInputStream(final InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		if (!ensure()) {
+			return -1;
+		}
+		return buffer[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+
+		if (len == 0) {
+			return 0;
+		}
+
+		if (!ensure()) {
+			return -1;
+		}
+
+		final int n = Math.min(len, limit - pos);
+		System.arraycopy(buffer, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+
+		long skipped = 0;
+
+		while (skipped < n && ensure()) {
+			final int step = (int) Math.min(n - skipped, limit - pos);
+			pos += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return limit - pos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * make sure there are filtered bytes to return
+	 *
+	 * @return false at the end of the stream
+	 * @throws IOException on read error
+	 */
+	private boolean ensure() throws IOException {
+
+		while (pos >= limit) {
+			if (eof) {
+				return false;
+			}
+			fill();
+		}
+		return true;
+	}
+
+	/**
+	 * read more bytes after the held back bytes, and filter them in place
+	 *
+	 * @throws IOException on read error
+	 */
+	private void fill() throws IOException {
+
+		// move the held back bytes to the start
+		final int held = count - limit;
+		System.arraycopy(buffer, limit, buffer, 0, held);
+		pos = 0;
+		limit = 0;
+		count = held;
+
+		final int n = in.read(buffer, count, buffer.length - count);
+		if (n == -1) {
+			eof = true;
+		} else {
+			count += n;
+		}
+
+		// hold back a partial sequence at the end, unless there is no more data
+		final int hold = eof ? 0 : partialMatch();
+		final int end = count - hold;
+
+		int w = 0;
+		int r = 0;
+
+		while (r < end) {
+			if (buffer[r] == MOJI[0] && r + MOJI.length <= count && buffer[r + 1] == MOJI[1]
+					&& buffer[r + 2] == MOJI[2] && buffer[r + 3] == MOJI[3]) {
+				r += 2; // drop the extra character, keep the micro symbol
+			}
+			buffer[w++] = buffer[r++];
+		}
+
+		System.arraycopy(buffer, end, buffer, w, hold);
+		limit = w;
+		count = w + hold;
+	}
+
+	/**
+	 * get the length of the longest start of the sequence at the end of the read bytes
+	 *
+	 * @return number of bytes to hold back, 0 to 3
+	 */
+	private int partialMatch() {
+
+		for (int k = Math.min(MOJI.length - 1, count); k > 0; k--) {
+			boolean match = true;
+			for (int i = 0; i < k && match; i++) {
+				match = buffer[count - k + i] == MOJI[i];
+			}
+			if (match) {
+				return k;
+			}
+		}
+		return 0;
+	}
+}